@@ -0,0 +1,223 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * CallTree - Prefix trie of sampled stacks (root caller first) with int node ids and
+ * primitive counters.
+ *
+ * Each sample adds one to the self count of the node for its full call path, so a node
+ * costs a few ints and a long however many samples land on it. Inclusive counts, per-method
+ * self/inclusive totals and caller/callee breakdowns are derived on demand, from the sample
+ * counts or from any other per-node value such as joules. Node ids are assigned in insertion
+ * order, so a parent always has a smaller id than its children.
+ */
+final class CallTree {
+    static final int ROOT = 0;
+
+    private int[] parents = new int[1024];
+    private int[] methodIds = new int[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private long[] self = new long[1024];
+    private int[] owners = new int[1024];   // method charged with a node's samples, -1 = none
+    private int size;
+
+    // (parent, method) -> child node, open addressing
+    private long[] childKeys = new long[2048];
+    private int[] childNodes = new int[2048];
+    private int childCount;
+
+    CallTree() {
+        parents[ROOT] = -1;
+        methodIds[ROOT] = -1;
+        firstChild[ROOT] = -1;
+        nextSibling[ROOT] = -1;
+        owners[ROOT] = -1;
+        Arrays.fill(childNodes, -1);
+        size = 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int parent(int node) {
+        return parents[node];
+    }
+
+    int methodId(int node) {
+        return methodIds[node];
+    }
+
+    long self(int node) {
+        return self[node];
+    }
+
+    // Node for the call path of a stack given leaf first, creating missing nodes; its samples
+    // are charged to ownerMethodId, the stack's winning method
+    int insert(EnergyAttribution.StackFrames stack, int ownerMethodId) {
+        int node = ROOT;
+        for (int f = stack.depth() - 1; f >= 0; f--) {
+            node = child(node, stack.methodId(f));
+        }
+        owners[node] = ownerMethodId;
+        return node;
+    }
+
+    void addSamples(int node, long samples) {
+        self[node] += samples;
+    }
+
+    // Child of a node for a method, created on first use
+    int child(int parent, int methodId) {
+        long key = ((long) parent << 32) | (methodId & 0xFFFFFFFFL);
+        int mask = childKeys.length - 1;
+        int i = hash(key) & mask;
+        while (childNodes[i] >= 0) {
+            if (childKeys[i] == key) return childNodes[i];
+            i = (i + 1) & mask;
+        }
+        int node = newNode(parent, methodId);
+        childKeys[i] = key;
+        childNodes[i] = node;
+        if (++childCount * 2 > childKeys.length) growChildTable();
+        return node;
+    }
+
+    // Self samples of every node
+    double[] selfSamples() {
+        double[] out = new double[size];
+        for (int n = 0; n < size; n++) out[n] = self[n];
+        return out;
+    }
+
+    // Self joules of every node: each method's joules are split over the nodes whose samples it
+    // was charged with, in proportion to nodeWeight (e.g. their sample counts)
+    double[] selfJoules(double[] joulesByMethod, double[] nodeWeight) {
+        double[] ownerWeight = new double[joulesByMethod.length];
+        for (int n = 1; n < size; n++) {
+            if (owners[n] >= 0) ownerWeight[owners[n]] += nodeWeight[n];
+        }
+        double[] out = new double[size];
+        for (int n = 1; n < size; n++) {
+            int owner = owners[n];
+            if (owner >= 0 && ownerWeight[owner] > 0) out[n] = joulesByMethod[owner] * nodeWeight[n] / ownerWeight[owner];
+        }
+        return out;
+    }
+
+    // Self plus descendant value for every node, from a per-node self value
+    double[] inclusive(double[] selfValue) {
+        double[] incl = Arrays.copyOf(selfValue, size);
+        for (int n = size - 1; n > ROOT; n--) incl[parents[n]] += incl[n];
+        return incl;
+    }
+
+    // Per-method sum of a per-node self value, indexed by method id
+    double[] selfByMethod(int methodCount, double[] selfValue) {
+        double[] out = new double[methodCount];
+        for (int n = 1; n < size; n++) out[methodIds[n]] += selfValue[n];
+        return out;
+    }
+
+    // Per-method inclusive value, counting each sample once even under recursion
+    double[] inclusiveByMethod(int methodCount, double[] incl) {
+        double[] out = new double[methodCount];
+        for (int n = 1; n < size; n++) {
+            if (!hasAncestorWithMethod(n, methodIds[n])) out[methodIds[n]] += incl[n];
+        }
+        return out;
+    }
+
+    // Inclusive value of a method broken down by its direct callers, indexed by method id
+    double[] callers(int methodId, int methodCount, double[] incl) {
+        double[] out = new double[methodCount];
+        for (int n = 1; n < size; n++) {
+            if (methodIds[n] == methodId && parents[n] != ROOT) out[methodIds[parents[n]]] += incl[n];
+        }
+        return out;
+    }
+
+    // Inclusive value spent in each direct callee of a method, indexed by method id
+    double[] callees(int methodId, int methodCount, double[] incl) {
+        double[] out = new double[methodCount];
+        for (int n = 1; n < size; n++) {
+            if (methodIds[n] != methodId) continue;
+            for (int c = firstChild[n]; c >= 0; c = nextSibling[c]) out[methodIds[c]] += incl[c];
+        }
+        return out;
+    }
+
+    // Fold another tree into this one, translating its method ids through remap; returns the
+    // node of this tree for each node of the other
+    int[] merge(CallTree other, int[] remap) {
+        int[] nodeMap = new int[other.size];
+        nodeMap[ROOT] = ROOT;
+        for (int n = 1; n < other.size; n++) {
+            int node = child(nodeMap[other.parents[n]], remap[other.methodIds[n]]);
+            self[node] += other.self[n];
+            if (other.owners[n] >= 0) owners[node] = remap[other.owners[n]];
+            nodeMap[n] = node;
+        }
+        return nodeMap;
+    }
+
+    int maxDepth() {
+        int[] depth = new int[size];
+        int max = 0;
+        for (int n = 1; n < size; n++) {
+            depth[n] = depth[parents[n]] + 1;
+            if (depth[n] > max) max = depth[n];
+        }
+        return max;
+    }
+
+    private boolean hasAncestorWithMethod(int node, int methodId) {
+        for (int p = parents[node]; p > ROOT; p = parents[p]) {
+            if (methodIds[p] == methodId) return true;
+        }
+        return false;
+    }
+
+    private int newNode(int parent, int methodId) {
+        if (size == parents.length) {
+            int n = size * 2;
+            parents = Arrays.copyOf(parents, n);
+            methodIds = Arrays.copyOf(methodIds, n);
+            firstChild = Arrays.copyOf(firstChild, n);
+            nextSibling = Arrays.copyOf(nextSibling, n);
+            self = Arrays.copyOf(self, n);
+            owners = Arrays.copyOf(owners, n);
+        }
+        int node = size++;
+        parents[node] = parent;
+        methodIds[node] = methodId;
+        firstChild[node] = -1;
+        owners[node] = -1;
+        nextSibling[node] = firstChild[parent];
+        firstChild[parent] = node;
+        return node;
+    }
+
+    private void growChildTable() {
+        long[] oldKeys = childKeys;
+        int[] oldNodes = childNodes;
+        childKeys = new long[oldKeys.length * 2];
+        childNodes = new int[oldKeys.length * 2];
+        Arrays.fill(childNodes, -1);
+        int mask = childKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldNodes[j] < 0) continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (childNodes[i] >= 0) i = (i + 1) & mask;
+            childKeys[i] = oldKeys[j];
+            childNodes[i] = oldNodes[j];
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,80 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/**
+ * CgroupCpuSampler - Cumulative CPU time of a cgroup v2 group (e.g. one container), read from
+ * the {@code usage_usec} line of {@code <cgroup-root>/<cgroup>/cpu.stat}.
+ *
+ * Like {@link ProcCpuSampler}, the file stays open and is re-read from offset 0 into one
+ * reused buffer, so a poll allocates nothing. The cgroup is named by its path below the
+ * cgroupfs mount, as in the {@code 0::} line of {@code /proc/<pid>/cgroup}.
+ */
+final class CgroupCpuSampler implements AutoCloseable {
+    static final String DEFAULT_CGROUP_ROOT = "/sys/fs/cgroup";
+    private static final byte[] USAGE_KEY = "usage_usec ".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path statPath;
+    private final FileChannel cpuStat;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1024);
+
+    CgroupCpuSampler(Path cgroupRoot, String cgroup) throws IOException {
+        // "/system.slice/x.scope" is relative to the mount, not to the file system root
+        String relative = cgroup.replaceFirst("^/+", "");
+        Path dir = relative.isEmpty() ? cgroupRoot : cgroupRoot.resolve(relative);
+        statPath = dir.resolve("cpu.stat");
+        try {
+            cpuStat = FileChannel.open(statPath, StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new IOException("No cgroup v2 cpu.stat for " + cgroup + " under " + cgroupRoot, e);
+        }
+        if (usageNanos() < 0) {
+            cpuStat.close();
+            throw new IOException(statPath + ": no usage_usec line");
+        }
+    }
+
+    // CPU time used by every task in the cgroup, or -1 if the cgroup was removed
+    long usageNanos() {
+        int length;
+        try {
+            buf.clear();
+            while (buf.hasRemaining()) {
+                if (cpuStat.read(buf, buf.position()) <= 0) break;
+            }
+            length = buf.position();
+        } catch (IOException e) {
+            return -1;
+        }
+        for (int line = 0; line < length; ) {
+            if (startsWithKey(line, length)) {
+                long v = 0;
+                int digits = 0;
+                for (int i = line + USAGE_KEY.length; i < length && buf.get(i) >= '0' && buf.get(i) <= '9'; i++, digits++) {
+                    v = v * 10 + (buf.get(i) - '0');
+                }
+                return (digits == 0) ? -1 : v * 1000;
+            }
+            while (line < length && buf.get(line) != '\n') line++;
+            line++;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cpuStat.close();
+    }
+
+    private boolean startsWithKey(int at, int length) {
+        if (at + USAGE_KEY.length > length) return false;
+        for (int k = 0; k < USAGE_KEY.length; k++) {
+            if (buf.get(at + k) != USAGE_KEY[k]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package demo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * CpuShare - The share of the host's busy CPU time used by one target (the profiled JVM
+ * process, or a cgroup) over time, read from a log written by
+ * {@code EnergyAttribution --record-cpu-share}.
+ *
+ * The log is a CSV file with the header {@value #HEADER} and one row per poll: epoch
+ * nanoseconds, the target's cumulative CPU nanoseconds, and the cumulative busy CPU
+ * nanoseconds of the whole host. Both counters accrue linearly between rows, so the share of
+ * any interval is the ratio of two interpolated differences. An interval outside the log
+ * gets the mean share of the whole log; {@link #coverage} tells how much of a window that is.
+ */
+final class CpuShare {
+    static final String HEADER = "epoch_nanos,target_cpu_ns,busy_cpu_ns";
+
+    private long[] nanos = new long[1024];
+    private double[] targetNanos = new double[1024];
+    private double[] busyNanos = new double[1024];
+    private int rows;
+
+    static CpuShare load(Path log) throws IOException {
+        CpuShare share = new CpuShare();
+        try (BufferedReader in = Files.newBufferedReader(log)) {
+            String line = in.readLine();
+            if (line == null || !line.trim().equals(HEADER)) {
+                throw new IOException(log + ": not a CPU share log, expected header " + HEADER);
+            }
+            int lineNo = 1;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) continue;
+                String[] f = line.split(",");
+                try {
+                    if (f.length != 3) throw new NumberFormatException("expected 3 fields");
+                    share.add(Long.parseLong(f[0].trim()), Long.parseLong(f[1].trim()), Long.parseLong(f[2].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException(log + ":" + lineNo + ": invalid CPU share row '" + line + "'");
+                }
+            }
+        }
+        if (share.rows < 2) throw new IOException(log + ": a CPU share log needs at least two rows");
+        return share;
+    }
+
+    static void writeHeader(BufferedWriter out) throws IOException {
+        out.write(HEADER);
+        out.newLine();
+    }
+
+    static void writeRow(BufferedWriter out, long epochNanos, long targetCpuNanos, long busyCpuNanos) throws IOException {
+        out.write(Long.toString(epochNanos));
+        out.write(',');
+        out.write(Long.toString(targetCpuNanos));
+        out.write(',');
+        out.write(Long.toString(busyCpuNanos));
+        out.newLine();
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    long firstNanos() {
+        return nanos[0];
+    }
+
+    long lastNanos() {
+        return nanos[rows - 1];
+    }
+
+    // Typical time between polls, to compare with the power log's cadence
+    long medianIntervalNanos() {
+        return PowerIndex.medianIntervalNanos(nanos, rows);
+    }
+
+    // Fraction of [fromNanos, toNanos] inside the log, in [0, 1]; the rest gets the mean share
+    double coverage(long fromNanos, long toNanos) {
+        if (toNanos <= fromNanos) return 0.0;
+        long from = Math.max(fromNanos, nanos[0]), to = Math.min(toNanos, nanos[rows - 1]);
+        return (to <= from) ? 0.0 : (to - from) / (double) (toNanos - fromNanos);
+    }
+
+    // Share of the whole log
+    double meanShare() {
+        return ratio(targetNanos[rows - 1] - targetNanos[0], busyNanos[rows - 1] - busyNanos[0]);
+    }
+
+    // Share of the host's busy CPU time the target used in [fromNanos, toNanos], in [0, 1]
+    double share(long fromNanos, long toNanos) {
+        if (toNanos <= nanos[0] || fromNanos >= nanos[rows - 1]) return meanShare();
+        long from = Math.max(fromNanos, nanos[0]), to = Math.min(toNanos, nanos[rows - 1]);
+        if (to <= from) return meanShare();
+        return ratio(at(targetNanos, to) - at(targetNanos, from), at(busyNanos, to) - at(busyNanos, from));
+    }
+
+    private static double ratio(double target, double busy) {
+        return (busy <= 0) ? 0.0 : Math.max(0.0, Math.min(1.0, target / busy));
+    }
+
+    // Counter value interpolated at a time inside the log
+    private double at(double[] counter, long t) {
+        int i = Arrays.binarySearch(nanos, 0, rows, t);
+        if (i >= 0) return counter[i];
+        int hi = -i - 1, lo = hi - 1;
+        double f = (t - nanos[lo]) / (double) (nanos[hi] - nanos[lo]);
+        return counter[lo] + f * (counter[hi] - counter[lo]);
+    }
+
+    // Rows must advance in time; a counter that goes backwards is held at its previous value
+    private void add(long epochNanos, long targetCpuNanos, long busyCpuNanos) {
+        if (rows > 0 && epochNanos <= nanos[rows - 1]) {
+            throw new NumberFormatException("timestamps must increase");
+        }
+        if (rows == nanos.length) {
+            nanos = Arrays.copyOf(nanos, rows * 2);
+            targetNanos = Arrays.copyOf(targetNanos, rows * 2);
+            busyNanos = Arrays.copyOf(busyNanos, rows * 2);
+        }
+        nanos[rows] = epochNanos;
+        targetNanos[rows] = targetCpuNanos;
+        busyNanos[rows] = busyCpuNanos;
+        if (rows > 0) {
+            targetNanos[rows] = Math.max(targetNanos[rows], targetNanos[rows - 1]);
+            busyNanos[rows] = Math.max(busyNanos[rows], busyNanos[rows - 1]);
+        }
+        rows++;
+    }
+}
@@ -4,25 +4,29 @@ import jdk.jfr.consumer.RecordedEvent;
 import jdk.jfr.consumer.RecordingFile;
 import jdk.jfr.consumer.RecordedFrame;
 import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
 import java.time.*;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * EnergyAttribution - A tool that combines JFR profiling data with Intel Power Gadget energy measurements
  * to attribute energy consumption to specific Java methods.
  */
 public final class EnergyAttribution {
-    // Regular expressions for finding columns in CSV
-    private static final Pattern PATTERN_ENERGY = Pattern.compile("(?i)(package|processor|pkg|ia).*energy.*(j|joule)");
-    private static final Pattern PATTERN_ELAPSED = Pattern.compile("(?i)elapsed\\s*time");
-    private static final Pattern PATTERN_POWER = Pattern.compile("(?i)(package|processor|pkg|ia).*power.*(w|watt)");
-    private static final Pattern PATTERN_SYSTEM_TIME = Pattern.compile("(?i)system\\s*time");
+    // JFR's default ExecutionSample period
+    private static final long DEFAULT_MAX_SAMPLE_GAP_NANOS = 20_000_000;
+    // How often --record-placement lists the task directory for new threads
+    private static final long PLACEMENT_RESCAN_NANOS = 200_000_000;
     
     // Main execution entry point
     public static void main(String[] args) {
@@ -37,16 +41,71 @@ public final class EnergyAttribution {
     
     // Main analysis logic separated for better error handling
     private static void executeAnalysis(String[] args) throws Exception {
-        if (args.length < 2) {
-            System.err.println("Usage: java demo.EnergyAttribution <profile.jfr> <power.csv> [topN] [--core <core-num>] [--use-ia] [--high-freq]");
+        if (args.length >= 1 && (args[0].equals("--live") || args[0].equals("--attach"))) {
+            executeLiveAnalysis(args);
+            return;
+        }
+        if (args.length >= 1 && (args[0].equals("--record-power") || args[0].equals("--record-rapl"))) {
+            executePowerRecording(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--record-placement")) {
+            executePlacementRecording(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--record-cpu-share")) {
+            executeCpuShareRecording(args);
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("--measure-idle")) {
+            executeIdleMeasurement(args);
+            return;
+        }
+        if (args.length < 1) {
+            System.err.println("Usage: java demo.EnergyAttribution <profile.jfr> [<power-log>] [topN] [--power-source <name>] [--core <core-num>] [--use-ia] [--high-freq] [--parallel] [--threads <n>] [--fast-decoder] [--verify-decoder] [--cache] [--from <time>] [--to <time>] [--heavy-hitters <k>] [--time-weighted] [--max-sample-gap <ms>] [--by-thread] [--thread-pools <file>] [--placement <file>] [--cpu-share <file>] [--idle-baseline <file|watts>] [--rules <file>] [--time-aligned] [--call-tree] [--focus <class.method>]");
+            System.err.println("  <power-log>     Power log; if omitted, the EnergySample events recorded by demo.PowerSampler are used");
+            System.err.println("  --power-source <name>  How to read the power log (default: recognized from the file)");
+            for (PowerSource s : PowerSource.available()) {
+                System.err.printf("      %-10s %s%s%n", s.name(), s.description(), s.isLive() ? " [live]" : "");
+            }
             System.err.println("  --core <num>    Use power data from specific core");
             System.err.println("  --use-ia        Use IA metrics instead of core-specific metrics");
             System.err.println("  --high-freq     Create and use high-frequency JFR settings");
+            System.err.println("  --parallel      Decode JFR chunks in parallel on a fork-join pool");
+            System.err.println("  --threads <n>   Number of worker threads for --parallel (default: all cores)");
+            System.err.println("  --fast-decoder  Decode ExecutionSample events with the memory-mapped JFR decoder");
+            System.err.println("  --verify-decoder  Decode with both decoders and fail if their results differ");
+            System.err.println("  --from <time>   Only analyze samples from this time: seconds into the recording, an ISO instant,");
+            System.err.println("                  or a local date-time or time of day (e.g. 14:03:00)");
+            System.err.println("  --to <time>     Only analyze samples up to this time (same formats as --from)");
+            System.err.println("  --heavy-hitters <k>  Count methods in k Space-Saving counters instead of exactly (fixed memory)");
+            System.err.println("  --time-weighted Weight each sample by the time since its thread's previous sample");
+            System.err.println("  --max-sample-gap <ms>  Cap on a sample's weight (default: 20; implies --time-weighted)");
+            System.err.println("  --by-thread     Also report energy per thread and per thread pool");
+            System.err.println("  --thread-pools <file>  Thread name to pool rules (default: collapse worker numbers; implies --by-thread)");
+            System.err.println("  --placement <file>  Charge each sample to the core its thread ran on, from a --record-placement log");
+            System.err.println("  --cpu-share <file>  Bill only the recorded process's or cgroup's share of the host's busy CPU time,");
+            System.err.println("                  from a --record-cpu-share log");
+            System.err.println("  --idle-baseline <file|watts>  Attribute only the energy above the idle power, from a --measure-idle");
+            System.err.println("                  file or in watts for the selected domain; the rest is reported as static");
+            System.err.println("  --cache         Reuse the decoded samples in <profile.jfr>.samples, building it if missing or stale");
+            System.err.println("  --rules <file>  Frame classification rules (default: built-in Top10Load rules)");
+            System.err.println("  --time-aligned  Split each power interval's energy among the samples taken in it");
+            System.err.println("  --call-tree     Build a call tree and report self and inclusive energy per method");
+            System.err.println("  --focus <class.method>  Show callers and callees of a method (implies --call-tree)");
+            System.err.println("   or: java demo.EnergyAttribution --live <jfr-repository> [topN] [--window <sec>] [--interval <sec>] [--rules <file>]");
+            System.err.println("   or: java demo.EnergyAttribution --attach <pid> [topN] [--window <sec>] [--interval <sec>] [--settings <file.jfc>] [--duration <sec>] [--rules <file>]");
+            System.err.println("   or: java demo.EnergyAttribution --record-power <power.csv> [--interval-ms <ms>] [--duration <sec>] [--power-source <name>] [--power-location <spec>]");
+            System.err.println("   or: java demo.EnergyAttribution --record-placement <placement.csv> --pid <pid> [--interval-ms <ms>] [--duration <sec>] [--proc-root <dir>]");
+            System.err.println("   or: java demo.EnergyAttribution --record-cpu-share <share.csv> (--pid <pid> | --cgroup <path>) [--interval-ms <ms>] [--duration <sec>] [--proc-root <dir>] [--cgroup-root <dir>]");
+            System.err.println("   or: java demo.EnergyAttribution --measure-idle <baseline.txt> [--duration <sec>] [--interval-ms <ms>] [--power-source <name>] [--power-location <spec>]");
             return;
         }
         
         Path jfr = Paths.get(args[0]);
-        Path csv = Paths.get(args[1]);
+        // The power log is optional when the recording carries its own EnergySample events
+        boolean hasCsv = args.length >= 2 && !args[1].startsWith("-") && !isInteger(args[1]);
+        String csv = hasCsv ? args[1] : null;
         
         // Validate files exist
         if (!Files.exists(jfr)) {
@@ -54,8 +113,8 @@ public final class EnergyAttribution {
             return;
         }
         
-        if (!Files.exists(csv)) {
-            System.err.println("ERROR: Power CSV file not found: " + csv);
+        if (hasCsv && !Files.exists(Paths.get(csv))) {
+            System.err.println("ERROR: Power log not found: " + csv);
             return;
         }
         
@@ -64,10 +123,23 @@ public final class EnergyAttribution {
         boolean useSpecificCore = false;
         boolean useIA = false;
         boolean useHighFreq = false;
+        boolean useParallel = false;
+        boolean useFastDecoder = false;
+        boolean verifyDecoder = false;
+        boolean useCache = false;
+        JfrOptions jfrOptions = new JfrOptions();
+        String focusMethod = null;
+        ThreadPoolRules poolRules = null;
+        CpuShare cpuShare = null;
+        IdleBaseline idleBaseline = null;
+        double idleWatts = Double.NaN;
+        String powerSourceName = null;
+        String fromArg = null, toArg = null;
+        int parallelism = Runtime.getRuntime().availableProcessors();
         int targetCore = 0;
         
         // Parse remaining arguments in any order
-        for (int i = 2; i < args.length; i++) {
+        for (int i = hasCsv ? 2 : 1; i < args.length; i++) {
             if (args[i].equals("--core") && i+1 < args.length) {
                 useSpecificCore = true;
                 try {
@@ -78,12 +150,109 @@ public final class EnergyAttribution {
                 }
                 System.out.println("Using measurements from Core " + targetCore);
                 i++; // Skip the next argument as we've used it
+            } else if (args[i].equals("--power-source") && i+1 < args.length) {
+                powerSourceName = args[++i];
             } else if (args[i].equals("--use-ia")) {
                 useIA = true;
                 System.out.println("Using IA metrics instead of core-specific metrics");
             } else if (args[i].equals("--high-freq")) {
                 useHighFreq = true;
                 System.out.println("Using high-frequency JFR sampling");
+            } else if (args[i].equals("--parallel")) {
+                useParallel = true;
+            } else if (args[i].equals("--fast-decoder")) {
+                useFastDecoder = true;
+                System.out.println("Using memory-mapped JFR sample decoder");
+            } else if (args[i].equals("--verify-decoder")) {
+                verifyDecoder = true;
+            } else if (args[i].equals("--cache")) {
+                useCache = true;
+            } else if (args[i].equals("--heavy-hitters") && i+1 < args.length) {
+                try {
+                    jfrOptions.heavyHitters = Integer.parseInt(args[i+1]);
+                } catch (NumberFormatException e) {
+                    System.err.println("ERROR: Invalid heavy-hitter counter count: " + args[i+1]);
+                    return;
+                }
+                if (jfrOptions.heavyHitters < 1) {
+                    System.err.println("ERROR: Heavy-hitter counter count must be at least 1: " + jfrOptions.heavyHitters);
+                    return;
+                }
+                i++;
+            } else if (args[i].equals("--time-weighted")) {
+                if (jfrOptions.maxSampleGapNanos == 0) jfrOptions.maxSampleGapNanos = DEFAULT_MAX_SAMPLE_GAP_NANOS;
+            } else if (args[i].equals("--max-sample-gap") && i+1 < args.length) {
+                try {
+                    jfrOptions.maxSampleGapNanos = Math.round(Double.parseDouble(args[i+1]) * 1_000_000);
+                } catch (NumberFormatException e) {
+                    System.err.println("ERROR: Invalid maximum sample gap: " + args[i+1]);
+                    return;
+                }
+                if (jfrOptions.maxSampleGapNanos <= 0) {
+                    System.err.println("ERROR: Maximum sample gap must be positive: " + args[i+1]);
+                    return;
+                }
+                i++;
+            } else if (args[i].equals("--by-thread")) {
+                jfrOptions.byThread = true;
+            } else if (args[i].equals("--thread-pools") && i+1 < args.length) {
+                jfrOptions.byThread = true;
+                Path poolFile = Paths.get(args[++i]);
+                poolRules = ThreadPoolRules.load(poolFile);
+                System.out.println("Using " + poolRules.size() + " thread pool rules from " + poolFile);
+            } else if (args[i].equals("--placement") && i+1 < args.length) {
+                Path placementFile = Paths.get(args[++i]);
+                jfrOptions.placement = ThreadPlacement.load(placementFile);
+                System.out.printf("Loaded %,d placements of %,d threads from %s%n", jfrOptions.placement.rows(),
+                        jfrOptions.placement.threads(), placementFile);
+            } else if (args[i].equals("--cpu-share") && i+1 < args.length) {
+                Path shareFile = Paths.get(args[++i]);
+                cpuShare = CpuShare.load(shareFile);
+                System.out.printf("Loaded %,d CPU share readings from %s%n", cpuShare.rows(), shareFile);
+            } else if (args[i].equals("--idle-baseline") && i+1 < args.length) {
+                String spec = args[++i];
+                try {
+                    idleWatts = Double.parseDouble(spec);
+                } catch (NumberFormatException e) {
+                    if (!Files.exists(Paths.get(spec))) {
+                        System.err.println("ERROR: Idle baseline is neither watts nor an existing file: " + spec);
+                        return;
+                    }
+                    idleBaseline = IdleBaseline.load(Paths.get(spec));
+                    System.out.println("Loaded idle baseline of " + String.join(", ", idleBaseline.domains()) + " from " + spec);
+                }
+                if (idleWatts < 0) {
+                    System.err.println("ERROR: Idle baseline must not be negative: " + spec);
+                    return;
+                }
+            } else if (args[i].equals("--from") && i+1 < args.length) {
+                fromArg = args[++i];
+            } else if (args[i].equals("--to") && i+1 < args.length) {
+                toArg = args[++i];
+            } else if (args[i].equals("--rules") && i+1 < args.length) {
+                Path rulesFile = Paths.get(args[++i]);
+                jfrOptions.rules = FrameRules.load(rulesFile);
+                System.out.println("Using " + jfrOptions.rules.size() + " frame rules from " + rulesFile);
+            } else if (args[i].equals("--time-aligned")) {
+                jfrOptions.sampleTimeline = true;
+            } else if (args[i].equals("--call-tree")) {
+                jfrOptions.callTree = true;
+            } else if (args[i].equals("--focus") && i+1 < args.length) {
+                jfrOptions.callTree = true;
+                focusMethod = args[++i];
+            } else if (args[i].equals("--threads") && i+1 < args.length) {
+                useParallel = true;
+                try {
+                    parallelism = Integer.parseInt(args[i+1]);
+                } catch (NumberFormatException e) {
+                    System.err.println("ERROR: Invalid thread count: " + args[i+1]);
+                    return;
+                }
+                if (parallelism < 1) {
+                    System.err.println("ERROR: Thread count must be at least 1: " + parallelism);
+                    return;
+                }
+                i++;
             } else {
                 try {
                     topN = Integer.parseInt(args[i]);
@@ -101,51 +270,1058 @@ public final class EnergyAttribution {
             System.out.println("Use this JFR settings file with: -XX:FlightRecorderOptions=settings=high-freq-jfr.jfc");
         }
 
-        // Load and process JFR data
+        // Restrict the analysis to a time range; chunks outside it are not decoded
+        if (fromArg != null || toArg != null) {
+            List<JfrChunkIndex.Chunk> chunks = JfrChunkIndex.read(jfr);
+            long recordingStart = chunks.isEmpty() ? 0 : chunks.get(0).startNanos;
+            try {
+                if (fromArg != null) jfrOptions.fromNanos = parseTimeBound(fromArg, recordingStart);
+                if (toArg != null) jfrOptions.toNanos = parseTimeBound(toArg, recordingStart);
+            } catch (DateTimeException e) {
+                System.err.println("ERROR: Invalid time: " + e.getMessage());
+                return;
+            }
+            if (jfrOptions.toNanos <= jfrOptions.fromNanos) {
+                System.err.println("ERROR: --to must be after --from");
+                return;
+            }
+            System.out.printf("Time range [%s .. %s] overlaps %d of %d JFR chunk(s)%n",
+                    (fromArg != null) ? Instant.ofEpochSecond(0, jfrOptions.fromNanos) : "start",
+                    (toArg != null) ? Instant.ofEpochSecond(0, jfrOptions.toNanos) : "end",
+                    JfrChunkIndex.overlapping(chunks, jfrOptions.fromNanos, jfrOptions.toNanos).size(), chunks.size());
+        }
+
+        // Decode the JFR recording and the power log concurrently: they are independent until
+        // the power is aligned to the recording window
+        PowerSource source = !hasCsv ? null
+                : (powerSourceName != null) ? PowerSource.named(powerSourceName) : PowerSource.forLocation(csv);
         System.out.println("Loading JFR data from: " + jfr);
-        JfrResult jfrRes = loadMethodSamplesAndDuration(jfr);
+        if (hasCsv) System.out.println("Loading " + source.name() + " power data from: " + csv);
+        JfrResult jfrRes;
+        PowerTimeline power;
+        long ingestStart = System.nanoTime();
+        try (TaskScope scope = new TaskScope("ingest")) {
+            boolean parallel = useParallel, fast = useFastDecoder, cached = useCache;
+            int threads = parallelism;
+            TaskScope.Subtask<JfrResult> jfrTask = scope.fork("jfr", () -> cached
+                    ? loadMethodSamplesCached(jfr, jfrOptions)
+                    : parallel ? loadMethodSamplesAndDurationParallel(jfr, jfrOptions, threads, fast)
+                    : fast ? loadMethodSamplesFast(jfr, jfrOptions) : loadMethodSamplesAndDuration(jfr, jfrOptions));
+            TaskScope.Subtask<PowerTimeline> powerTask = hasCsv ? scope.fork("power", () -> PowerTimeline.load(source, csv)) : null;
+            scope.join();
+            jfrRes = jfrTask.get();
+            power = hasCsv ? powerTask.get() : null;
+            if (hasCsv && jfrOptions.hasRange() && !power.clip(jfrOptions.fromNanos, jfrOptions.toNanos)) {
+                System.out.println("Warning: Power log has no timestamps; it is not clipped to the time range");
+            }
+            if (hasCsv) {
+                System.out.printf("Decoded JFR in %,d ms and power in %,d ms on %s threads, %,d ms wall time%n",
+                        jfrTask.nanos() / 1_000_000, powerTask.nanos() / 1_000_000,
+                        TaskScope.virtualThreads() ? "virtual" : "platform", (System.nanoTime() - ingestStart) / 1_000_000);
+            }
+        }
+        
+        if (verifyDecoder) {
+            // Decode the same chunk layout with the other decoder: RecordingFile's timestamps
+            // depend on which chunks share a file, since a chunk can inherit the time base of
+            // an earlier one. The cache holds the whole recording, filtered to the time range
+            // With heavy hitters the other decoder counts exactly, and the sketch bounds are checked
+            JfrOptions otherOptions = (jfrOptions.heavyHitters > 0) ? jfrOptions.exactCounts() : jfrOptions;
+            JfrResult other;
+            if (useCache) {
+                other = readExecutionSamples(jfr, otherOptions);
+                other.finish();
+            } else if (useParallel) {
+                other = loadMethodSamplesAndDurationParallel(jfr, otherOptions, parallelism, !useFastDecoder);
+            } else {
+                other = useFastDecoder ? loadMethodSamplesAndDuration(jfr, otherOptions) : loadMethodSamplesFast(jfr, otherOptions);
+            }
+            String mismatch = compareResults(jfrRes, other);
+            if (mismatch != null) {
+                throw new IllegalStateException("JFR decoders disagree: " + mismatch);
+            }
+            System.out.println("Verified: RecordingFile and memory-mapped decoder produce identical samples");
+            if (jfrRes.heavyHitters != null) {
+                System.out.println("Verified: heavy-hitter counts bound the exact counts of the other decoder");
+            }
+        }
+        
+        StackCache cache = jfrRes.stackCache;
+        System.out.printf("Stack cache: %.1f%% hit rate over %,d lookups (capacity %,d)%n",
+                cache.hitRate() * 100.0, cache.lookups(), cache.capacity());
         
         if (jfrRes.totalSamples == 0) {
             System.err.println("WARNING: No samples found in JFR file. The recording may be empty or contain no execution samples.");
         }
         
-        // Use core-specific energy if requested
-        double totalEnergyJ;
-        if (useSpecificCore || useIA) {
-            totalEnergyJ = loadCoreSpecificEnergyJ(csv, targetCore, jfrRes.start, jfrRes.end, useIA);
-        } else {
-            totalEnergyJ = loadTotalEnergyJ(csv, jfrRes.start, jfrRes.end);
+        // Every power domain is loaded once; use the core-specific or IA one if requested
+        if (!hasCsv) {
+            if (jfrRes.recordedPower == null) {
+                System.err.println("ERROR: No power log given and the JFR file contains no " + EnergySample.NAME + " events (record with demo.PowerSampler)");
+                return;
+            }
+            power = jfrRes.recordedPower;
+            if (jfrOptions.hasRange()) power.clip(jfrOptions.fromNanos, jfrOptions.toNanos);
+            System.out.printf("Using %,d energy samples recorded in the JFR file%n", power.rows());
+        }
+        PowerTimeline.Domain domain = selectDomain(power, useSpecificCore, targetCore, useIA);
+        // Leave the idle power out of the energy attributed to methods; it is reported as static
+        if (!Double.isNaN(idleWatts)) idleBaseline = IdleBaseline.of(domain.name, idleWatts);
+        if (idleBaseline != null) {
+            if (power.index(domain).isEmpty()) {
+                System.out.println("Warning: Power log has no System Time for " + domain.name
+                        + "; the idle baseline is not subtracted");
+                idleBaseline = null;
+            } else {
+                if (Double.isNaN(idleBaseline.watts(domain.name))) {
+                    System.out.println("Warning: Idle baseline has no " + domain.name + " domain; all of its energy is attributed");
+                }
+                power.subtractBaseline(idleBaseline);
+            }
+        }
+        // Bill the JVM (or its container) only its share of each interval's energy before
+        // attributing it to methods
+        double hostEnergyJ = Double.NaN;
+        if (cpuShare != null) {
+            // The share only scales energy taken over the JFR window
+            double coverage = (jfrRes.start != null) ? cpuShare.coverage(jfrRes.startNanos, jfrRes.endNanos) : 0.0;
+            if (power.index(domain).isEmpty()) {
+                System.out.println("Warning: Power log has no System Time for " + domain.name
+                        + "; energy is not apportioned by CPU share");
+            } else if (jfrRes.start == null) {
+                System.out.println("Warning: No JFR window to apportion; energy is not apportioned by CPU share");
+            } else if (coverage == 0) {
+                System.out.printf("Warning: CPU share log [%s .. %s] does not overlap the JFR window [%s .. %s];"
+                        + " energy is not apportioned by CPU share%n",
+                        Instant.ofEpochSecond(0, cpuShare.firstNanos()), Instant.ofEpochSecond(0, cpuShare.lastNanos()),
+                        jfrRes.start, jfrRes.end);
+            } else {
+                if (coverage < 1) {
+                    System.out.printf("Warning: CPU share log covers only %.1f%% of the JFR window; the rest is billed"
+                            + " the log's mean share of %.1f%%%n", coverage * 100.0, cpuShare.meanShare() * 100.0);
+                } else {
+                    System.out.println("CPU share log covers 100.0% of the JFR window");
+                }
+                // The logs are recorded independently; a coarser share log smears each share
+                // over several power intervals
+                long shareStep = cpuShare.medianIntervalNanos(), powerStep = power.index(domain).medianIntervalNanos();
+                if (powerStep > 0 && shareStep > powerStep * 3 / 2) {
+                    System.out.printf("Warning: CPU share log polls every %.1f ms, the power log every %.1f ms; each power"
+                            + " interval gets the share interpolated over the coarser polls (record with --interval-ms %d)%n",
+                            shareStep / 1e6, powerStep / 1e6, Math.max(1, Math.round(powerStep / 1e6)));
+                }
+                hostEnergyJ = domainEnergyJ(power, domain, jfrRes, false);
+                power.apportion(cpuShare);
+            }
+        }
+        double totalEnergyJ = domainEnergyJ(power, domain, jfrRes, true);
+        // Static energy over the same window as the dynamic total; a whole-file fallback has none
+        double staticEnergyJ = (idleBaseline != null) ? power.alignedStaticEnergyJ(domain, jfrRes.start, jfrRes.end) : Double.NaN;
+        if (power.hasBaseline(domain) && Double.isNaN(staticEnergyJ)) {
+            System.out.println("Warning: The JFR window cannot be aligned with the power log; the idle baseline is not subtracted");
+        }
+        if (!Double.isNaN(staticEnergyJ)) {
+            System.out.printf("Idle baseline: %.3f W of %s; %.3f J static energy is not attributed, %.3f J dynamic energy is"
+                    + " (%.1f%% of %.3f J)%n", idleBaseline.watts(domain.name), domain.name, staticEnergyJ, totalEnergyJ,
+                    (staticEnergyJ + totalEnergyJ > 0) ? totalEnergyJ * 100.0 / (staticEnergyJ + totalEnergyJ) : 0.0,
+                    staticEnergyJ + totalEnergyJ);
+        }
+        if (!Double.isNaN(hostEnergyJ)) {
+            System.out.printf("Apportioned by CPU share: the profiled process or cgroup is billed %.3f J of %.3f J host %s energy"
+                    + " (%.1f%%), %.3f J goes to everything else%n", totalEnergyJ, hostEnergyJ, domain.name,
+                    (hostEnergyJ > 0) ? totalEnergyJ * 100.0 / hostEnergyJ : 0.0, hostEnergyJ - totalEnergyJ);
         }
 
-        // Derive per-method energy by sample share
-        List<Row> rows = new ArrayList<>(jfrRes.byMethod.size());
+        // Derive per-method energy by sample share, or from the power at each sample's time
+        MethodDictionary methods = jfrRes.methods;
+        // With a placement log, each sample is charged against its own core's energy timeline
+        CoreAttribution perCore = (jfrRes.cpuTimelines != null) ? coreEnergyJ(power, jfrRes) : null;
+        double[] energyByMethod = (perCore != null) ? perCore.joulesByMethod
+                : methodEnergyJ(power, domain, jfrRes, totalEnergyJ, true);
         long totalSamples = jfrRes.totalSamples;
         double durSec = Math.max(1e-9, jfrRes.durationSec); // avoid div by zero
-        for (var e : jfrRes.byMethod.entrySet()) {
-            String method = e.getKey();
-            long samples = e.getValue();
+        
+        // Select the top N methods by energy with a bounded heap; the sketch only has candidates
+        // for the methods it holds counters for
+        SpaceSaving sketch = jfrRes.heavyHitters;
+        TopN top = new TopN(topN);
+        if (sketch != null) {
+            for (int i = 0; i < sketch.size(); i++) top.offer(sketch.key(i), energyByMethod[sketch.key(i)]);
+        } else {
+            for (int id = 0; id < methods.size(); id++) {
+                if (jfrRes.samples(id) > 0) top.offer(id, energyByMethod[id]);
+            }
+        }
+        List<Row> rows = new ArrayList<>(topN);
+        for (int id : top.drain()) {
+            long samples = jfrRes.samples(id);
             double share = (totalSamples == 0) ? 0.0 : (samples / (double) totalSamples);
-            double energyJ = totalEnergyJ * share;
+            double energyJ = energyByMethod[id];
             double avgW = energyJ / durSec;
-            rows.add(new Row(method, samples, share, energyJ, energyJ / 3.6, avgW));
+            // Idle power is spent for as long as a method runs, so its static energy follows its time share
+            double staticJ = staticEnergyJ * jfrRes.weightedShare(id);
+            rows.add(new Row(id, samples, share, energyJ, energyJ / 3.6, avgW, staticJ));
         }
 
-        // Sort by energy usage and limit to top N methods
-        rows.sort(Comparator.<Row>comparingDouble(r -> r.energyJ).reversed());
-        if (rows.size() > topN) rows = rows.subList(0, topN);
-
         // Print results
-        System.out.printf("Recording duration: %.3fs, total samples: %,d, total package energy: %.3f J (%.3f mWh)%n",
-                durSec, totalSamples, totalEnergyJ, totalEnergyJ / 3.6);
+        boolean split = !Double.isNaN(staticEnergyJ);
+        System.out.printf("Recording duration: %.3fs, total samples: %,d, total %s%s energy: %.3f J (%.3f mWh)%n",
+                durSec, totalSamples, split ? "dynamic " : "", domain.name, totalEnergyJ, totalEnergyJ / 3.6);
+
+        if (sketch != null) {
+            System.out.printf("Heavy hitters: %,d counters, sample counts overestimate by at most the +/- column"
+                    + " (any method without a counter has at most %,.0f samples)%n", sketch.capacity(), sketch.maxError());
+        }
+        // Time-weighted runs show the sampled-time share next to the raw sample share
+        boolean weighted = (jfrRes.weights != null);
+        if (weighted) {
+            System.out.printf("Time-weighted: each sample counts the time since its thread's previous sample, at most %.1f ms"
+                    + " (mean %.3f ms); energy is split by time share%n",
+                    jfrRes.weights.maxGapNanos() / 1e6, jfrRes.weights.meanGapNanos() / 1e6);
+        }
+        System.out.printf("%-60s %10s %7s%s %12s%s %10s %10s%s%n",
+                "Method", "Samples", "%", weighted ? String.format(" %7s", "Time %") : "",
+                split ? "Dynamic (J)" : "Energy (J)", split ? String.format(" %12s", "Static (J)") : "", "mWh", "Avg W",
+                (sketch != null) ? String.format(" %8s", "+/-") : "");
+        String[] names = rowNames(rows, methods);
+        for (int i = 0; i < rows.size(); i++) {
+            Row r = rows.get(i);
+            System.out.printf("%-60.60s %,10d %6.1f%%%s %12.3f%s %10.3f %10.3f%s%n",
+                    names[i], r.samples, r.share * 100.0,
+                    weighted ? String.format(" %6.1f%%", jfrRes.weightedShare(r.methodId) * 100.0) : "",
+                    r.energyJ, split ? String.format(" %12.3f", r.staticJ) : "", r.mWh, r.avgW,
+                    (sketch != null) ? String.format(" %,8.0f", sketch.errorOf(r.methodId)) : "");
+        }
+        
+        if (power.domains().size() > 1) {
+            printDomains(power, jfrRes, rows, names);
+        }
+        
+        if (perCore != null) {
+            printCores(perCore, durSec);
+        }
+        
+        if (jfrRes.threadCounts != null) {
+            printThreads(jfrRes, energyByMethod, durSec, topN, (poolRules != null) ? poolRules : ThreadPoolRules.defaults());
+        }
+        
+        if (jfrRes.callTree != null) {
+            printCallTree(jfrRes, energyByMethod, topN, focusMethod);
+        }
+    }
+    
+    // A --from/--to bound in epoch nanos: seconds from the start of the recording (e.g. 90 or
+    // 90.5), an ISO instant (2024-05-01T14:03:00Z), or a local date-time or time of day, the
+    // latter on the date the recording started
+    private static long parseTimeBound(String s, long recordingStartNanos) {
+        try {
+            return recordingStartNanos + Math.round(Double.parseDouble(s) * 1e9);
+        } catch (NumberFormatException e) {
+            // Not an offset
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            return PowerIndex.toNanos(Instant.parse(s));
+        } catch (DateTimeException e) {
+            // Not an instant
+        }
+        try {
+            return PowerIndex.toNanos(LocalDateTime.parse(s).atZone(zone).toInstant());
+        } catch (DateTimeException e) {
+            // Not a local date-time
+        }
+        LocalDate day = Instant.ofEpochSecond(0, recordingStartNanos).atZone(zone).toLocalDate();
+        return PowerIndex.toNanos(LocalTime.parse(s).atDate(day).atZone(zone).toInstant());
+    }
+    
+    private static boolean isInteger(String s) {
+        try {
+            Integer.parseInt(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+    
+    // Domain whose energy is attributed: --use-ia, --core <n> (IA for core 0 when the log has no
+    // per-core columns), else package; falls back to package when the requested one is missing
+    private static PowerTimeline.Domain selectDomain(PowerTimeline power, boolean useSpecificCore, int targetCore,
+                                                     boolean useIA) throws IOException {
+        PowerTimeline.Domain domain = null;
+        if (useIA) {
+            domain = power.domain(PowerTimeline.IA);
+            System.out.println("Using IA metrics as requested via --use-ia");
+        } else if (useSpecificCore) {
+            domain = power.domain(PowerTimeline.core(targetCore));
+            if (domain == null && targetCore == 0) {
+                System.out.println("WARNING: No Core 0 specific power/energy columns found, falling back to IA energy");
+                domain = power.domain(PowerTimeline.IA);
+            }
+        }
+        if ((useIA || useSpecificCore) && (domain == null || Double.isNaN(power.wholeFileEnergyJ(domain)))) {
+            System.out.println("WARNING: No usable core-specific or IA metrics found, falling back to package energy");
+            domain = null;
+        }
+        if (domain == null) domain = power.domain(PowerTimeline.PACKAGE);
+        if (domain == null) throw new IOException("Package energy/power not found among power channels:\n" + power.headerLine());
+        System.out.println("Using " + domain.name + " energy from column: "
+                + (domain.energyColumn != null ? domain.energyColumn : domain.powerColumn));
+        return domain;
+    }
+    
+    // Energy of a domain within the JFR window, or over the whole log if it cannot be aligned
+    private static double domainEnergyJ(PowerTimeline power, PowerTimeline.Domain domain, JfrResult jfrRes,
+                                        boolean verbose) {
+        double energyJ = power.alignedEnergyJ(domain, jfrRes.start, jfrRes.end);
+        if (!Double.isNaN(energyJ)) {
+            if (verbose) {
+                System.out.printf("Aligned energy over power readings by time within JFR window [%s .. %s]%n",
+                        jfrRes.start, jfrRes.end);
+            }
+            return energyJ;
+        }
+        if (verbose) {
+            System.out.println("Warning: Falling back to whole-file energy integration (no usable System Time alignment).");
+        }
+        energyJ = power.wholeFileEnergyJ(domain);
+        return Double.isNaN(energyJ) ? 0.0 : energyJ;
+    }
+    
+    // Energy per method id: the domain's window energy split by sample (or weighted time) share, or with
+    // time-aligned attribution each power interval's energy split among its samples
+    private static double[] methodEnergyJ(PowerTimeline power, PowerTimeline.Domain domain, JfrResult jfrRes,
+                                          double totalEnergyJ, boolean verbose) {
+        int methodCount = jfrRes.methods.size();
+        PowerIndex index = power.index(domain);
+        if (jfrRes.sampleTimeline != null && !index.isEmpty()) {
+            SampleTimeline.Attribution a = jfrRes.sampleTimeline.attribute(index, methodCount);
+            if (verbose) {
+                System.out.printf("Time-aligned attribution: %.3f J over %,d power intervals with samples "
+                        + "(%.3f J in intervals without samples, %,d samples outside the power log)%n",
+                        a.attributedJ, a.intervals, a.unattributedJ, a.samplesOutside);
+            }
+            return a.joulesByMethod;
+        }
+        if (jfrRes.sampleTimeline != null && verbose) {
+            System.out.println("Warning: Power log has no System Time for " + domain.name
+                    + "; using sample-share attribution instead of time-aligned");
+        }
+        double[] joules = new double[methodCount];
+        for (int id = 0; id < methodCount; id++) {
+            joules[id] = totalEnergyJ * jfrRes.weightedShare(id);
+        }
+        return joules;
+    }
+    
+    // Energy charged to each CPU's samples
+    private static final class CoreAttribution {
+        final double[] joulesByMethod;
+        final long[] samples;   // per CPU
+        final double[] joules;   // per CPU, NaN when the power log has no core domain for it
+        double unattributedJ;   // core energy in intervals without samples
+        long samplesOutside;   // samples outside their core's power readings
+        long unmetered;   // samples on CPUs without a core domain
+        
+        CoreAttribution(int methodCount, int cpus) {
+            joulesByMethod = new double[methodCount];
+            samples = new long[cpus];
+            joules = new double[cpus];
+        }
+    }
+    
+    // Per-core attribution: the samples placed on each CPU split the energy of that CPU's core
+    // domain interval by interval, as --time-aligned does for one domain. Returns null if no
+    // CPU with samples has a core domain with timestamped readings
+    private static CoreAttribution coreEnergyJ(PowerTimeline power, JfrResult jfrRes) {
+        int methodCount = jfrRes.methods.size();
+        SampleTimeline[] timelines = jfrRes.cpuTimelines;
+        CoreAttribution result = new CoreAttribution(methodCount, timelines.length);
+        int metered = 0;
+        double attributedJ = 0.0;
+        for (int cpu = 0; cpu < timelines.length; cpu++) {
+            result.joules[cpu] = Double.NaN;
+            if (timelines[cpu] == null) continue;
+            result.samples[cpu] = timelines[cpu].size();
+            PowerTimeline.Domain d = power.domain(PowerTimeline.core(cpu));
+            PowerIndex index = (d == null) ? null : power.index(d);
+            if (index == null || index.isEmpty()) {
+                result.unmetered += timelines[cpu].size();
+                continue;
+            }
+            SampleTimeline.Attribution a = timelines[cpu].attribute(index, methodCount);
+            for (int id = 0; id < methodCount; id++) result.joulesByMethod[id] += a.joulesByMethod[id];
+            result.joules[cpu] = a.attributedJ;
+            result.unattributedJ += a.unattributedJ;
+            result.samplesOutside += a.samplesOutside;
+            attributedJ += a.attributedJ;
+            metered++;
+        }
+        if (metered == 0) {
+            System.out.println("Warning: The power log has no timestamped core domain for any CPU the samples ran on;"
+                    + " charging samples to the selected domain instead");
+            return null;
+        }
+        System.out.printf("Per-core attribution: %.3f J over %d CPU(s) (%.3f J in intervals without samples, %,d samples"
+                + " outside the power log, %,d on CPUs without a core column, %,d of threads without placement)%n",
+                attributedJ, metered, result.unattributedJ, result.samplesOutside, result.unmetered, jfrRes.unplacedSamples);
+        return result;
+    }
+    
+    private static void printCores(CoreAttribution perCore, double durSec) {
+        System.out.printf("%nEnergy by core:%n%-10s %10s %12s %10s%n", "CPU", "Samples", "Energy (J)", "Avg W");
+        for (int cpu = 0; cpu < perCore.samples.length; cpu++) {
+            if (perCore.samples[cpu] == 0) continue;
+            double j = perCore.joules[cpu];
+            System.out.printf("%-10d %,10d %12s %10s%n", cpu, perCore.samples[cpu],
+                    Double.isNaN(j) ? "-" : String.format("%.3f", j), Double.isNaN(j) ? "-" : String.format("%.3f", j / durSec));
+        }
+    }
+    
+    // Energy of the printed methods in every domain of the power log, side by side
+    private static void printDomains(PowerTimeline power, JfrResult jfrRes, List<Row> rows, String[] names) {
+        List<PowerTimeline.Domain> domains = power.domains();
+        double[] domainJ = new double[domains.size()];
+        double[][] byMethod = new double[domains.size()][];
+        StringBuilder header = new StringBuilder(String.format("%-60s %10s", "Method", "Samples"));
+        List<String> dynamic = new ArrayList<>();
+        StringBuilder totals = new StringBuilder(String.format("%-60s %,10d", "(total)", jfrRes.totalSamples));
+        for (int d = 0; d < domains.size(); d++) {
+            domainJ[d] = domainEnergyJ(power, domains.get(d), jfrRes, false);
+            byMethod[d] = methodEnergyJ(power, domains.get(d), jfrRes, domainJ[d], false);
+            // Domains with an idle baseline hold only their dynamic energy, unless the window
+            // could not be aligned and the whole log was integrated instead
+            boolean aboveIdle = !Double.isNaN(power.alignedStaticEnergyJ(domains.get(d), jfrRes.start, jfrRes.end));
+            if (aboveIdle) dynamic.add(domains.get(d).name);
+            header.append(String.format(" %12s", domains.get(d).name + (aboveIdle ? " dyn J" : " J")));
+            totals.append(String.format(" %12.3f", domainJ[d]));
+        }
+        System.out.printf("%nEnergy by domain%s:%n%s%n%s%n",
+                dynamic.isEmpty() ? "" : " (dyn = above the idle baseline of " + String.join(", ", dynamic) + ")", header, totals);
+        for (int i = 0; i < rows.size(); i++) {
+            Row r = rows.get(i);
+            StringBuilder line = new StringBuilder(String.format("%-60.60s %,10d", names[i], r.samples));
+            for (double[] j : byMethod) line.append(String.format(" %12.3f", j[r.methodId]));
+            System.out.println(line);
+        }
+    }
+    
+    // Energy per thread and per thread pool: each method's energy is split among the threads
+    // that ran it by their share of its samples, and a pool sums its threads
+    private static void printThreads(JfrResult jfrRes, double[] energyByMethod, double durSec, int topN,
+                                     ThreadPoolRules poolRules) {
+        ThreadMethodCounts counts = jfrRes.threadCounts;
+        long[] methodSamples = new long[jfrRes.methods.size()];
+        LongMap<Integer> threadIndex = new LongMap<>(256);
+        List<Long> threadIds = new ArrayList<>();
+        counts.forEach((threadId, methodId, n) -> {
+            methodSamples[methodId] += n;
+            if (threadIndex.get(threadId) == null) {
+                threadIndex.put(threadId, threadIds.size());
+                threadIds.add(threadId);
+            }
+        });
+        long[] threadSamples = new long[threadIds.size()];
+        double[] threadJ = new double[threadIds.size()];
+        counts.forEach((threadId, methodId, n) -> {
+            int t = threadIndex.get(threadId);
+            threadSamples[t] += n;
+            threadJ[t] += energyByMethod[methodId] * n / methodSamples[methodId];
+        });
+        
+        String[] threadNames = new String[threadIds.size()];
+        Map<String, Integer> poolIndex = new LinkedHashMap<>();
+        int[] poolOf = new int[threadIds.size()];
+        for (int t = 0; t < threadNames.length; t++) {
+            SampledThread thread = jfrRes.threads.get(threadIds.get(t));
+            threadNames[t] = (thread != null) ? thread.name : "thread " + threadIds.get(t);
+            poolOf[t] = poolIndex.computeIfAbsent(poolRules.poolOf(threadNames[t]), k -> poolIndex.size());
+        }
+        String[] poolNames = poolIndex.keySet().toArray(new String[0]);
+        int[] poolThreads = new int[poolNames.length];
+        long[] poolSamples = new long[poolNames.length];
+        double[] poolJ = new double[poolNames.length];
+        for (int t = 0; t < threadNames.length; t++) {
+            poolThreads[poolOf[t]]++;
+            poolSamples[poolOf[t]] += threadSamples[t];
+            poolJ[poolOf[t]] += threadJ[t];
+        }
+        long total = jfrRes.totalSamples;
+        
+        System.out.printf("%nEnergy by thread (%,d threads):%n", threadNames.length);
+        System.out.printf("%-50s %10s %10s %7s %12s %10s%n", "Thread", "Id", "Samples", "%", "Energy (J)", "Avg W");
+        TopN topThreads = new TopN(topN);
+        for (int t = 0; t < threadJ.length; t++) topThreads.offer(t, threadJ[t]);
+        for (int t : topThreads.drain()) {
+            System.out.printf("%-50.50s %10d %,10d %6.1f%% %12.3f %10.3f%n", threadNames[t], threadIds.get(t),
+                    threadSamples[t], (total == 0) ? 0.0 : threadSamples[t] * 100.0 / total, threadJ[t], threadJ[t] / durSec);
+        }
+        
+        System.out.printf("%nEnergy by thread pool (%,d pools):%n", poolNames.length);
+        System.out.printf("%-50s %10s %10s %7s %12s %10s%n", "Pool", "Threads", "Samples", "%", "Energy (J)", "Avg W");
+        TopN topPools = new TopN(topN);
+        for (int p = 0; p < poolJ.length; p++) topPools.offer(p, poolJ[p]);
+        for (int p : topPools.drain()) {
+            System.out.printf("%-50.50s %,10d %,10d %6.1f%% %12.3f %10.3f%n", poolNames[p], poolThreads[p],
+                    poolSamples[p], (total == 0) ? 0.0 : poolSamples[p] * 100.0 / total, poolJ[p], poolJ[p] / durSec);
+        }
+    }
+    
+    // Printed names of report rows; only overloads that would print identically get their descriptor
+    private static String[] rowNames(List<Row> rows, MethodDictionary methods) {
+        Map<String, Integer> printedNames = new HashMap<>();
+        for (Row r : rows) printedNames.merge(methods.displayName(r.methodId), 1, Integer::sum);
+        String[] names = new String[rows.size()];
+        for (int i = 0; i < names.length; i++) {
+            int id = rows.get(i).methodId;
+            String name = methods.displayName(id);
+            names[i] = (printedNames.get(name) > 1) ? methods.qualifiedName(id) : name;
+        }
+        return names;
+    }
+    
+    // Self and inclusive energy per method from the call tree, and the callers and callees
+    // of a focus method
+    private static void printCallTree(JfrResult jfrRes, double[] energyByMethod, int topN, String focusMethod) {
+        CallTree tree = jfrRes.callTree;
+        MethodDictionary methods = jfrRes.methods;
+        int methodCount = methods.size();
+        // Nodes get the joules the method table charged their winning method, so the two agree
+        // in every attribution mode; a method's joules are split over its call paths by samples,
+        // or by sampled time when time-weighted
+        double[] self = tree.selfSamples();
+        ThreadGapWeights nodeWeights = jfrRes.nodeWeights;
+        double[] nodeWeight = self;
+        if (nodeWeights != null) {
+            nodeWeight = new double[tree.size()];
+            for (int n = 0; n < nodeWeight.length; n++) nodeWeight[n] = nodeWeights.weightNanos(n);
+        }
+        double[] selfJ = tree.selfJoules(energyByMethod, nodeWeight);
+        double[] incl = tree.inclusive(self);
+        double[] inclJ = tree.inclusive(selfJ);
+        double[] selfByMethod = tree.selfByMethod(methodCount, self);
+        double[] selfJByMethod = tree.selfByMethod(methodCount, selfJ);
+        double[] inclByMethod = tree.inclusiveByMethod(methodCount, incl);
+        double[] inclJByMethod = tree.inclusiveByMethod(methodCount, inclJ);
+        double total = incl[CallTree.ROOT];
+        
+        System.out.printf("%nCall tree: %,d nodes, max depth %d, %.3f J (each method's energy above, split over the"
+                + " call paths charged to it by %s)%n", tree.size() - 1, tree.maxDepth(), inclJ[CallTree.ROOT],
+                (nodeWeights != null) ? "sampled time" : "samples");
+        System.out.printf("%-60s %10s %12s %10s %12s %7s%n",
+                "Method", "Self", "Self (J)", "Inclusive", "Incl (J)", "Incl %");
+        for (int id : topByCount(inclByMethod, topN)) {
+            System.out.printf("%-60.60s %,10.0f %12.3f %,10.0f %12.3f %6.1f%%%n",
+                    methods.displayName(id), selfByMethod[id], selfJByMethod[id],
+                    inclByMethod[id], inclJByMethod[id],
+                    (total == 0) ? 0.0 : inclByMethod[id] * 100.0 / total);
+        }
+        
+        if (focusMethod == null) return;
+        boolean found = false;
+        for (int id = 0; id < methodCount; id++) {
+            if (!focusMethod.equals(methods.displayName(id)) && !focusMethod.equals(methods.qualifiedName(id))) continue;
+            found = true;
+            System.out.printf("%n%s: self %.3f J, inclusive %.3f J%n", methods.qualifiedName(id),
+                    selfJByMethod[id], inclJByMethod[id]);
+            printEdges("  Callers", tree.callers(id, methodCount, incl), tree.callers(id, methodCount, inclJ), methods, topN);
+            printEdges("  Callees", tree.callees(id, methodCount, incl), tree.callees(id, methodCount, inclJ), methods, topN);
+        }
+        if (!found) System.err.println("Warning: Method not found in call tree: " + focusMethod);
+    }
+    
+    private static void printEdges(String title, double[] samplesByMethod, double[] joulesByMethod,
+                                   MethodDictionary methods, int topN) {
+        int[] ids = topByCount(samplesByMethod, topN);
+        System.out.println(title + (ids.length == 0 ? ": none" : ":"));
+        for (int id : ids) {
+            System.out.printf("    %-56.56s %,10.0f %12.3f J%n",
+                    methods.displayName(id), samplesByMethod[id], joulesByMethod[id]);
+        }
+    }
+    
+    // Ids of the largest non-zero counts, largest first
+    private static int[] topByCount(double[] counts, int topN) {
+        TopN top = new TopN(topN);
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) top.offer(id, counts[id]);
+        }
+        return top.drain();
+    }
 
-        System.out.printf("%-60s %10s %7s %12s %10s %10s%n",
-                "Method", "Samples", "%", "Energy (J)", "mWh", "Avg W");
-        for (Row r : rows) {
-            System.out.printf("%-60.60s %,10d %6.1f%% %12.3f %10.3f %10.3f%n",
-                    r.method, r.samples, r.share * 100.0, r.energyJ, r.mWh, r.avgW);
+    // Continuous mode: follow a local JVM's JFR disk repository, or attach to a running JVM
+    // over JMX, and re-print a rolling top-N table
+    private static void executeLiveAnalysis(String[] args) throws Exception {
+        boolean attach = args[0].equals("--attach");
+        if (args.length < 2) {
+            System.err.println("Usage: java demo.EnergyAttribution --live <jfr-repository> [topN] [--window <sec>] [--interval <sec>] [--rules <file>] [--power-source <name>] [--power-location <spec>]");
+            System.err.println("   or: java demo.EnergyAttribution --attach <pid> [topN] [--window <sec>] [--interval <sec>] [--settings <file.jfc>] [--duration <sec>] [--rules <file>] [--power-source <name>] [--power-location <spec>]");
+            System.err.println("  --window <sec>    Length of the rolling attribution window (default: 30)");
+            System.err.println("  --interval <sec>  How often the table is re-printed (default: 5)");
+            System.err.println("  --settings <jfc>  JFR settings started on the attached JVM (default: high-freq-jfr.jfc)");
+            System.err.println("  --duration <sec>  Detach after this many seconds (default: until interrupted)");
+            System.err.println("  --rules <file>    Frame classification rules (default: built-in Top10Load rules)");
+            System.err.println("  --power-source <name>    Live power source read every " + LIVE_POWER_INTERVAL_MS + " ms for the package energy");
+            System.err.println("                           (default: " + EnergySample.NAME + " events in the stream, from a PowerSampler in the target)");
+            System.err.println("  --power-location <spec>  Source location, e.g. the powercap sysfs directory");
+            return;
+        }
+        
+        Path repository = Paths.get(args[1]);
+        if (!attach && !Files.isDirectory(repository)) {
+            System.err.println("ERROR: JFR repository directory not found: " + repository);
+            return;
+        }
+        
+        int topN = 20;
+        int windowSec = 30;
+        int intervalSec = 5;
+        Path settings = Paths.get("high-freq-jfr.jfc");
+        Duration duration = null;
+        FrameRules rules = FrameRules.defaults();
+        String powerSourceName = null;
+        String powerLocation = null;
+        for (int i = 2; i < args.length; i++) {
+            try {
+                if (args[i].equals("--power-source") && i+1 < args.length) {
+                    powerSourceName = args[++i];
+                } else if (args[i].equals("--power-location") && i+1 < args.length) {
+                    powerLocation = args[++i];
+                } else if (args[i].equals("--window") && i+1 < args.length) {
+                    windowSec = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--interval") && i+1 < args.length) {
+                    intervalSec = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--settings") && i+1 < args.length) {
+                    settings = Paths.get(args[++i]);
+                } else if (args[i].equals("--duration") && i+1 < args.length) {
+                    duration = Duration.ofSeconds(Integer.parseInt(args[++i]));
+                } else if (args[i].equals("--rules") && i+1 < args.length) {
+                    rules = FrameRules.load(Paths.get(args[++i]));
+                } else {
+                    topN = Integer.parseInt(args[i]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Warning: Unknown parameter: " + args[i]);
+            }
+        }
+        
+        if (attach && !Files.exists(settings)) {
+            System.err.println("ERROR: JFR settings file not found: " + settings);
+            return;
+        }
+        
+        // Energy of the package domain, kept for one window plus one report interval
+        Duration keep = Duration.ofSeconds(windowSec + intervalSec);
+        LiveEnergyMeter meter;
+        if (powerSourceName != null) {
+            PowerSource source = PowerSource.named(powerSourceName);
+            if (!source.isLive()) {
+                System.err.println("ERROR: Power source '" + powerSourceName + "' replays a log and cannot be read live");
+                return;
+            }
+            meter = LiveEnergyMeter.poll(source.open(powerLocation), PowerTimeline.PACKAGE,
+                    Duration.ofMillis(LIVE_POWER_INTERVAL_MS), keep);
+            System.out.printf("Reading %s energy from %s%s every %d ms%n", meter.domain(), source.name(),
+                    (powerLocation != null) ? " at " + powerLocation : "", LIVE_POWER_INTERVAL_MS);
+        } else {
+            meter = LiveEnergyMeter.fromEvents(PowerTimeline.PACKAGE, keep);
+            System.out.printf("Reading %s energy from %s events in the stream (record them with demo.PowerSampler in the"
+                    + " target; without them only samples are shown)%n", meter.domain(), EnergySample.NAME);
+        }
+        try (LiveEnergyMeter m = meter) {
+            LiveAttribution live = new LiveAttribution(topN, Duration.ofSeconds(windowSec), Duration.ofSeconds(intervalSec),
+                    rules, m, System.out);
+            if (attach) {
+                System.out.printf("Attaching to JVM %s with %s (window %ds, report every %ds)%n", args[1], settings, windowSec, intervalSec);
+                LiveAttribution.attachRemote(live, args[1], settings, duration);
+                System.out.println("Detached from JVM " + args[1]);
+            } else {
+                System.out.printf("Following JFR repository %s (window %ds, report every %ds)%n", repository, windowSec, intervalSec);
+                LiveAttribution.followRepository(live, repository);
+            }
+        }
+    }
+    
+    private static final int LIVE_POWER_INTERVAL_MS = 100;
+    
+    // Record the cumulative energy of a live power source (RAPL by default) into a power CSV
+    // that the analysis reads like a Power Gadget log, until the duration elapses or the
+    // process is interrupted
+    private static void executePowerRecording(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java demo.EnergyAttribution --record-power <power.csv> [--interval-ms <ms>] [--duration <sec>] [--power-source <name>] [--power-location <spec>]");
+            System.err.println("  --interval-ms <ms>       Sampling interval (default: 100)");
+            System.err.println("  --duration <sec>         Stop after this many seconds (default: until interrupted)");
+            System.err.println("  --power-source <name>    Live power source (default: rapl)");
+            System.err.println("  --power-location <spec>  Source location, e.g. the powercap sysfs directory (alias: --powercap-root)");
+            return;
+        }
+        
+        Path out = Paths.get(args[1]);
+        int intervalMs = 100;
+        long durationMs = Long.MAX_VALUE;
+        String sourceName = "rapl";
+        String location = null;
+        for (int i = 2; i < args.length; i++) {
+            try {
+                if (args[i].equals("--interval-ms") && i+1 < args.length) {
+                    intervalMs = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--duration") && i+1 < args.length) {
+                    durationMs = Integer.parseInt(args[++i]) * 1000L;
+                } else if (args[i].equals("--power-source") && i+1 < args.length) {
+                    sourceName = args[++i];
+                } else if ((args[i].equals("--power-location") || args[i].equals("--powercap-root")) && i+1 < args.length) {
+                    location = args[++i];
+                } else {
+                    System.err.println("Warning: Unknown parameter: " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Warning: Invalid value for " + args[i - 1] + ": " + args[i]);
+            }
+        }
+        if (intervalMs < 1) {
+            System.err.println("ERROR: Interval must be at least 1 ms: " + intervalMs);
+            return;
+        }
+        
+        PowerSource source = PowerSource.named(sourceName);
+        if (!source.isLive()) {
+            System.err.println("ERROR: Power source '" + sourceName + "' replays a log and cannot be recorded");
+            return;
+        }
+        // Cumulative energy channels become CSV columns
+        List<Integer> recorded = new ArrayList<>();
+        List<String> domains = new ArrayList<>();
+        PowerSource.Readings readings = source.open(location);
+        for (int c = 0; c < readings.channels().size(); c++) {
+            PowerSource.Channel channel = readings.channels().get(c);
+            if (channel.cumulative && !domains.contains(channel.domain)) {
+                recorded.add(c);
+                domains.add(channel.domain);
+            }
+        }
+        System.out.printf("Recording %s %s%s every %d ms to %s%n", source.name(), String.join(", ", domains),
+                (location != null) ? " from " + location : "", intervalMs, out);
+        
+        long rows = 0;
+        try (RecordingStop stop = new RecordingStop(); PowerSource.Readings r = readings;
+             BufferedWriter w = Files.newBufferedWriter(out)) {
+            StringBuilder header = new StringBuilder("System Time,Elapsed Time (sec)");
+            for (String d : domains) header.append(',').append(PowerGadgetCsvSource.energyColumn(d));
+            w.write(header.toString());
+            w.newLine();
+            long startNanos = System.nanoTime();
+            long next = startNanos;
+            while (!stop.requested() && (System.nanoTime() - startNanos) / 1_000_000 <= durationMs) {
+                if (!r.next()) break;
+                StringBuilder row = new StringBuilder(PowerGadgetCsvSource.formatSystemTime(Instant.ofEpochSecond(0, r.timeNanos())));
+                row.append(String.format(Locale.ROOT, ",%.3f", r.elapsedSec()));
+                for (int c : recorded) row.append(String.format(Locale.ROOT, ",%.6f", r.value(c)));
+                w.write(row.toString());
+                w.newLine();
+                rows++;
+                next += intervalMs * 1_000_000L;
+                RecordingStop.sleepUntil(next);
+            }
+        } finally {
+            System.out.printf("Wrote %,d rows to %s%n", rows, out);
         }
     }
 
+    // Stops a recording loop on Ctrl-C: the shutdown hook raises the flag and waits until this is
+    // closed. Opened before the output file, it is closed after it, so the file is flushed before
+    // the JVM exits; the file is written through an interruptible channel, so the loop is not
+    // interrupted
+    private static final class RecordingStop implements AutoCloseable {
+        private final AtomicBoolean stop = new AtomicBoolean();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Thread hook = new Thread(() -> {
+            stop.set(true);
+            try {
+                done.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // Exit anyway
+            }
+        });
+        
+        RecordingStop() {
+            Runtime.getRuntime().addShutdownHook(hook);
+        }
+        
+        boolean requested() {
+            return stop.get();
+        }
+        
+        // Sleep until a slot of a fixed-rate schedule, so a slow read does not shift later samples
+        static void sleepUntil(long nanoTime) throws InterruptedException {
+            long sleepNanos = nanoTime - System.nanoTime();
+            if (sleepNanos > 0) Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+        }
+        
+        @Override
+        public void close() {
+            done.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // Already shutting down
+            }
+        }
+    }
+
+    // Sample the CPU placement of a process's threads from /proc into a placement log for
+    // --placement; only moves are written, so an idle or pinned thread costs one row
+    private static void executePlacementRecording(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java demo.EnergyAttribution --record-placement <placement.csv> --pid <pid> [--interval-ms <ms>] [--duration <sec>] [--proc-root <dir>]");
+            System.err.println("  --pid <pid>        Process whose threads are sampled, e.g. the profiled JVM");
+            System.err.println("  --interval-ms <ms> Sampling interval (default: 10)");
+            System.err.println("  --duration <sec>   Stop after this many seconds (default: until interrupted or the process ends)");
+            System.err.println("  --proc-root <dir>  procfs mount to read (default: " + ThreadPlacementSampler.DEFAULT_PROC_ROOT + ")");
+            return;
+        }
+        
+        Path out = Paths.get(args[1]);
+        long pid = -1;
+        int intervalMs = 10;
+        long durationMs = Long.MAX_VALUE;
+        Path procRoot = Paths.get(ThreadPlacementSampler.DEFAULT_PROC_ROOT);
+        for (int i = 2; i < args.length; i++) {
+            try {
+                if (args[i].equals("--pid") && i+1 < args.length) {
+                    pid = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--interval-ms") && i+1 < args.length) {
+                    intervalMs = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--duration") && i+1 < args.length) {
+                    durationMs = Integer.parseInt(args[++i]) * 1000L;
+                } else if (args[i].equals("--proc-root") && i+1 < args.length) {
+                    procRoot = Paths.get(args[++i]);
+                } else {
+                    System.err.println("Warning: Unknown parameter: " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Warning: Invalid value for " + args[i - 1] + ": " + args[i]);
+            }
+        }
+        if (pid < 0) {
+            System.err.println("ERROR: --pid <pid> is required");
+            return;
+        }
+        if (intervalMs < 1) {
+            System.err.println("ERROR: Interval must be at least 1 ms: " + intervalMs);
+            return;
+        }
+        
+        ThreadPlacementSampler sampler = new ThreadPlacementSampler(procRoot, pid);
+        System.out.printf("Recording CPU placement of %d thread(s) of process %d every %d ms to %s%n",
+                sampler.threads(), pid, intervalMs, out);
+        long rows = 0;
+        try (RecordingStop stop = new RecordingStop(); ThreadPlacementSampler s = sampler; BufferedWriter w = Files.newBufferedWriter(out)) {
+            ThreadPlacement.writeHeader(w);
+            long startNanos = System.nanoTime();
+            long next = startNanos, nextRescan = startNanos + PLACEMENT_RESCAN_NANOS;
+            while (!stop.requested() && (System.nanoTime() - startNanos) / 1_000_000 <= durationMs) {
+                if (System.nanoTime() >= nextRescan) {
+                    s.rescan();
+                    if (s.threads() == 0) break; // the process ended
+                    nextRescan += PLACEMENT_RESCAN_NANOS;
+                }
+                int moved = s.sample();
+                long epochNanos = PowerIndex.toNanos(Instant.now());
+                for (int i = 0; i < moved; i++) {
+                    ThreadPlacement.writeRow(w, epochNanos, s.movedTid(i), s.movedCpu(i));
+                }
+                rows += moved;
+                next += intervalMs * 1_000_000L;
+                RecordingStop.sleepUntil(next);
+            }
+        } finally {
+            System.out.printf("Wrote %,d placement rows to %s%n", rows, out);
+        }
+    }
+
+    // Sample the cumulative CPU time of a process (from /proc) or of a cgroup v2 group (from its
+    // cpu.stat) and the host's busy CPU time into a CPU share log for --cpu-share
+    private static void executeCpuShareRecording(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java demo.EnergyAttribution --record-cpu-share <share.csv> (--pid <pid> | --cgroup <path>) [--interval-ms <ms>] [--duration <sec>] [--proc-root <dir>] [--cgroup-root <dir>]");
+            System.err.println("  --pid <pid>        Process whose CPU time is sampled, e.g. the profiled JVM");
+            System.err.println("  --cgroup <path>    cgroup v2 group whose CPU time is sampled instead, e.g. a container's");
+            System.err.println("                     (as in the 0:: line of /proc/<pid>/cgroup)");
+            System.err.println("  --interval-ms <ms> Sampling interval, ideally that of the power log (default: 100)");
+            System.err.println("  --duration <sec>   Stop after this many seconds (default: until interrupted or the target ends)");
+            System.err.println("  --proc-root <dir>  procfs mount to read (default: " + ThreadPlacementSampler.DEFAULT_PROC_ROOT + ")");
+            System.err.println("  --cgroup-root <dir>  cgroup v2 mount to read (default: " + CgroupCpuSampler.DEFAULT_CGROUP_ROOT + ")");
+            return;
+        }
+        
+        Path out = Paths.get(args[1]);
+        long pid = -1;
+        String cgroup = null;
+        Path cgroupRoot = Paths.get(CgroupCpuSampler.DEFAULT_CGROUP_ROOT);
+        int intervalMs = 100;
+        long durationMs = Long.MAX_VALUE;
+        Path procRoot = Paths.get(ThreadPlacementSampler.DEFAULT_PROC_ROOT);
+        for (int i = 2; i < args.length; i++) {
+            try {
+                if (args[i].equals("--pid") && i+1 < args.length) {
+                    pid = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--interval-ms") && i+1 < args.length) {
+                    intervalMs = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--duration") && i+1 < args.length) {
+                    durationMs = Integer.parseInt(args[++i]) * 1000L;
+                } else if (args[i].equals("--proc-root") && i+1 < args.length) {
+                    procRoot = Paths.get(args[++i]);
+                } else if (args[i].equals("--cgroup") && i+1 < args.length) {
+                    cgroup = args[++i];
+                } else if (args[i].equals("--cgroup-root") && i+1 < args.length) {
+                    cgroupRoot = Paths.get(args[++i]);
+                } else {
+                    System.err.println("Warning: Unknown parameter: " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Warning: Invalid value for " + args[i - 1] + ": " + args[i]);
+            }
+        }
+        if ((pid < 0) == (cgroup == null)) {
+            System.err.println("ERROR: Exactly one of --pid <pid> and --cgroup <path> is required");
+            return;
+        }
+        if (intervalMs < 1) {
+            System.err.println("ERROR: Interval must be at least 1 ms: " + intervalMs);
+            return;
+        }
+        
+        // A cgroup is read from its own cpu.stat; /proc then only supplies the host's busy time
+        CgroupCpuSampler group = (cgroup != null) ? new CgroupCpuSampler(cgroupRoot, cgroup) : null;
+        ProcCpuSampler sampler;
+        try {
+            sampler = new ProcCpuSampler(procRoot, pid);
+        } catch (IOException e) {
+            if (group != null) group.close();
+            throw e;
+        }
+        String target = (group != null) ? "cgroup " + cgroup : "process " + pid;
+        System.out.printf("Recording CPU time of %s and the host every %d ms to %s%n", target, intervalMs, out);
+        long rows = 0;
+        try (RecordingStop stop = new RecordingStop(); ProcCpuSampler s = sampler; CgroupCpuSampler g = group;
+             BufferedWriter w = Files.newBufferedWriter(out)) {
+            CpuShare.writeHeader(w);
+            long startNanos = System.nanoTime();
+            long next = startNanos;
+            while (!stop.requested() && (System.nanoTime() - startNanos) / 1_000_000 <= durationMs) {
+                long targetNanos = (g != null) ? g.usageNanos() : s.processNanos();
+                if (targetNanos < 0) break; // the process ended or the cgroup was removed
+                CpuShare.writeRow(w, PowerIndex.toNanos(Instant.now()), targetNanos, s.busyNanos());
+                rows++;
+                next += intervalMs * 1_000_000L;
+                RecordingStop.sleepUntil(next);
+            }
+        } finally {
+            System.out.printf("Wrote %,d CPU share rows to %s%n", rows, out);
+        }
+    }
+
+    // Measure the mean power of every domain while the machine idles, from a live source or a
+    // power log recorded while idle, into an idle baseline file for --idle-baseline
+    private static void executeIdleMeasurement(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java demo.EnergyAttribution --measure-idle <baseline.txt> [--duration <sec>] [--interval-ms <ms>] [--power-source <name>] [--power-location <spec>]");
+            System.err.println("  --duration <sec>         How long to sample a live source (default: 10)");
+            System.err.println("  --interval-ms <ms>       Sampling interval of a live source (default: 100)");
+            System.err.println("  --power-source <name>    Power source (default: rapl, or the one recognizing --power-location)");
+            System.err.println("  --power-location <spec>  Source location, e.g. a power log recorded while idle");
+            return;
+        }
+        
+        Path out = Paths.get(args[1]);
+        int intervalMs = 100;
+        long durationMs = 10_000;
+        String sourceName = null;
+        String location = null;
+        for (int i = 2; i < args.length; i++) {
+            try {
+                if (args[i].equals("--interval-ms") && i+1 < args.length) {
+                    intervalMs = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--duration") && i+1 < args.length) {
+                    durationMs = Integer.parseInt(args[++i]) * 1000L;
+                } else if (args[i].equals("--power-source") && i+1 < args.length) {
+                    sourceName = args[++i];
+                } else if ((args[i].equals("--power-location") || args[i].equals("--powercap-root")) && i+1 < args.length) {
+                    location = args[++i];
+                } else {
+                    System.err.println("Warning: Unknown parameter: " + args[i]);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Warning: Invalid value for " + args[i - 1] + ": " + args[i]);
+            }
+        }
+        if (intervalMs < 1) {
+            System.err.println("ERROR: Interval must be at least 1 ms: " + intervalMs);
+            return;
+        }
+        
+        PowerSource source = (sourceName != null) ? PowerSource.named(sourceName)
+                : (location != null) ? PowerSource.forLocation(location) : PowerSource.named("rapl");
+        boolean live = source.isLive();
+        // One channel per domain: its cumulative energy counter, else its power reading
+        PowerSource.Readings readings = source.open(location);
+        List<PowerSource.Channel> channels = readings.channels();
+        Map<String, Integer> chosen = new LinkedHashMap<>();
+        for (int c = 0; c < channels.size(); c++) {
+            PowerSource.Channel channel = channels.get(c);
+            Integer prev = chosen.get(channel.domain);
+            if (prev == null || channel.cumulative && !channels.get(prev).cumulative) chosen.put(channel.domain, c);
+        }
+        String[] domains = chosen.keySet().toArray(new String[0]);
+        int[] channelOf = chosen.values().stream().mapToInt(Integer::intValue).toArray();
+        System.out.printf("Measuring idle %s %s%s%s; keep the machine idle%n", source.name(), String.join(", ", domains),
+                (location != null) ? " from " + location : "", live ? String.format(" for %,d s", durationMs / 1000) : "");
+        
+        double[] joules = new double[domains.length];
+        double[] prev = new double[domains.length];
+        Arrays.fill(prev, Double.NaN);
+        double firstSec = Double.NaN, lastSec = Double.NaN;
+        try (RecordingStop stop = new RecordingStop(); PowerSource.Readings r = readings) {
+            long startNanos = System.nanoTime();
+            long next = startNanos;
+            while (!stop.requested() && (!live || (System.nanoTime() - startNanos) / 1_000_000 <= durationMs)) {
+                if (!r.next()) break;
+                double sec = (r.timeNanos() != Long.MIN_VALUE) ? r.timeNanos() / 1e9 : r.elapsedSec();
+                if (Double.isNaN(sec)) continue;
+                for (int d = 0; d < domains.length; d++) {
+                    double v = r.value(channelOf[d]);
+                    if (Double.isNaN(v)) continue;
+                    // A counter that went backwards (reset or wrap) contributes nothing to its interval
+                    if (channels.get(channelOf[d]).cumulative) {
+                        if (!Double.isNaN(prev[d])) joules[d] += Math.max(0, v - prev[d]);
+                    } else if (!Double.isNaN(prev[d])) {
+                        joules[d] += Math.max(0, prev[d]) * Math.max(0, sec - lastSec);
+                    }
+                    prev[d] = v;
+                }
+                if (Double.isNaN(firstSec)) firstSec = sec;
+                lastSec = sec;
+                if (live) {
+                    next += intervalMs * 1_000_000L;
+                    RecordingStop.sleepUntil(next);
+                }
+            }
+        }
+        double seconds = lastSec - firstSec;
+        if (!(seconds > 0)) {
+            System.err.println("ERROR: Too few readings to measure idle power");
+            return;
+        }
+        IdleBaseline baseline = new IdleBaseline();
+        for (int d = 0; d < domains.length; d++) {
+            if (!Double.isNaN(prev[d])) baseline.put(domains[d], joules[d] / seconds);
+        }
+        baseline.write(out, String.format(Locale.ROOT, "Idle power measured with %s%s over %.1f s",
+                source.name(), live ? " ending " + Instant.now() : " from " + location, seconds));
+        for (String d : baseline.domains()) System.out.printf("  %-10s %10.3f W%n", d, baseline.watts(d));
+        System.out.println("Wrote idle baseline to " + out);
+    }
+
     // Create a high-frequency JFR configuration file
     private static void createHighFreqJfrSettings(Path outputPath) throws IOException {
         String highFreqConfig = 
@@ -168,68 +1344,355 @@ public final class EnergyAttribution {
 
     // Data structure for display rows
     private static final class Row {
-        final String method;
+        final int methodId;
         final long samples;
         final double share;
         final double energyJ;
         final double mWh;
         final double avgW;
+        final double staticJ;   // idle energy while the method ran, NaN without a baseline
         
-        Row(String m, long s, double sh, double e, double mwh, double w) {
-            this.method = m; 
+        Row(int m, long s, double sh, double e, double mwh, double w, double st) {
+            this.methodId = m; 
             this.samples = s; 
             this.share = sh; 
             this.energyJ = e; 
             this.mWh = mwh; 
             this.avgW = w;
+            this.staticJ = st;
         }
     }
 
+    // Receives the method(s) a sampled stack is attributed to
+    interface MethodCounter {
+        void addMethodSample(int methodId);
+    }
+
+    // What to collect while reading samples, beyond per-method counts
+    static final class JfrOptions {
+        boolean callTree;
+        boolean sampleTimeline;   // keep per-sample timestamps for time-aligned attribution
+        FrameRules rules = FrameRules.defaults();
+        long maxSampleGapNanos;   // weight samples by their thread's sampling gap up to this, 0 = unweighted
+        int heavyHitters;   // Space-Saving counters replacing the exact per-method counts, 0 = exact
+        boolean byThread;   // count samples per (thread, method) for the thread and pool rollups
+        ThreadPlacement placement;   // charge each sample to the CPU its thread ran on, null = off
+        long fromNanos = Long.MIN_VALUE;   // samples outside [fromNanos, toNanos] are ignored
+        long toNanos = Long.MAX_VALUE;
+        
+        boolean hasRange() {
+            return fromNanos != Long.MIN_VALUE || toNanos != Long.MAX_VALUE;
+        }
+        
+        boolean inRange(long epochNanos) {
+            return epochNanos >= fromNanos && epochNanos <= toNanos;
+        }
+        
+        // The same options with exact per-method counts, to check the heavy-hitter bounds against
+        JfrOptions exactCounts() {
+            JfrOptions o = new JfrOptions();
+            o.callTree = callTree;
+            o.sampleTimeline = sampleTimeline;
+            o.rules = rules;
+            o.maxSampleGapNanos = maxSampleGapNanos;
+            o.byThread = byThread;
+            o.placement = placement;
+            o.fromNanos = fromNanos;
+            o.toNanos = toNanos;
+            return o;
+        }
+        
+        // Chunks of a recording that can hold samples in the range
+        List<JfrChunkIndex.Chunk> chunks(Path jfrPath) throws IOException {
+            return JfrChunkIndex.overlapping(JfrChunkIndex.read(jfrPath), fromNanos, toNanos);
+        }
+    }
+
+    // A thread that was sampled, as named by the recording
+    private static final class SampledThread {
+        final String name;
+        final long osThreadId;   // -1 if unknown
+        
+        SampledThread(String name, long osThreadId) {
+            this.name = name;
+            this.osThreadId = osThreadId;
+        }
+    }
+    
     // JFR analysis result class
-    private static final class JfrResult {
-        final Map<String, Long> byMethod = new HashMap<>();
+    private static final class JfrResult implements MethodCounter {
+        final MethodDictionary methods = new MethodDictionary();
+        final StackCache stackCache = new StackCache();
+        final FrameRules rules;
+        final CallTree callTree;   // null unless requested
+        final SampleTimeline sampleTimeline;   // null unless requested
+        final SpaceSaving heavyHitters;   // null unless requested, then counts stay empty
+        final ThreadGapWeights weights;   // null unless requested
+        final ThreadGapWeights nodeWeights;   // the same weights per call tree node, with both requested
+        final ThreadMethodCounts threadCounts;   // null unless requested
+        final LongMap<SampledThread> threads;   // when counted per thread or placed on CPUs
+        final ThreadPlacement placement;   // null unless requested
+        SampleTimeline[] cpuTimelines;   // samples per CPU, when placed
+        long unplacedSamples;   // of threads the placement log does not know
+        PowerTimeline recordedPower;   // EnergySample events in the recording, null if none
+        long[] counts = new long[256];   // samples per method id
         long totalSamples = 0;
         double durationSec = 0.0;
+        long startNanos = Long.MAX_VALUE;
+        long endNanos = Long.MIN_VALUE;
+        long sampleNanos;   // timestamp of the sample being attributed
+        long sampleThread;   // and its thread
         Instant start;
         Instant end;
         
+        JfrResult(JfrOptions options) {
+            this.rules = options.rules;
+            this.callTree = options.callTree ? new CallTree() : null;
+            this.sampleTimeline = options.sampleTimeline ? new SampleTimeline() : null;
+            this.heavyHitters = (options.heavyHitters > 0) ? new SpaceSaving(options.heavyHitters) : null;
+            this.weights = (options.maxSampleGapNanos > 0)
+                    ? new ThreadGapWeights(options.maxSampleGapNanos, options.heavyHitters) : null;
+            this.nodeWeights = (options.maxSampleGapNanos > 0 && options.callTree)
+                    ? new ThreadGapWeights(options.maxSampleGapNanos, 0) : null;
+            this.threadCounts = options.byThread ? new ThreadMethodCounts() : null;
+            this.placement = options.placement;
+            this.threads = (options.byThread || placement != null) ? new LongMap<>(256) : null;
+            this.cpuTimelines = (placement != null) ? new SampleTimeline[0] : null;
+        }
+        
+        // Count a sample with the memoized decision held in a stack cache slot
+        void addSample(int cacheSlot) {
+            if (callTree != null) {
+                int node = stackCache.node(cacheSlot);
+                callTree.addSamples(node, 1);
+                if (nodeWeights != null) nodeWeights.add(sampleThread, sampleNanos, node);
+            }
+            addMethodSample(stackCache.methodId(cacheSlot));
+        }
+        
         // Add calculated fields from samples
-        void addMethodSample(String method) {
-            byMethod.merge(method, 1L, Long::sum);
+        @Override
+        public void addMethodSample(int methodId) {
+            if (heavyHitters != null) {
+                heavyHitters.add(methodId, 1);
+            } else {
+                if (methodId >= counts.length) counts = Arrays.copyOf(counts, Math.max(methodId + 1, counts.length * 2));
+                counts[methodId]++;
+            }
             totalSamples++;
+            if (sampleTimeline != null) sampleTimeline.add(sampleNanos, methodId);
+            if (weights != null) weights.add(sampleThread, sampleNanos, methodId);
+            if (threadCounts != null) threadCounts.add(sampleThread, methodId, 1);
+            if (placement != null) placeSample(methodId);
+        }
+        
+        // Add a sample to the timeline of the CPU its thread ran on at the time
+        private void placeSample(int methodId) {
+            SampledThread thread = threads.get(sampleThread);
+            int cpu = (thread == null || thread.osThreadId < 0) ? -1 : placement.cpuAt(thread.osThreadId, sampleNanos);
+            if (cpu < 0) {
+                unplacedSamples++;
+                return;
+            }
+            cpuTimeline(cpu).add(sampleNanos, methodId);
+        }
+        
+        private SampleTimeline cpuTimeline(int cpu) {
+            if (cpu >= cpuTimelines.length) cpuTimelines = Arrays.copyOf(cpuTimelines, cpu + 1);
+            if (cpuTimelines[cpu] == null) cpuTimelines[cpu] = new SampleTimeline();
+            return cpuTimelines[cpu];
+        }
+        
+        // True if samples are tracked per thread and this thread has not been seen yet
+        boolean unknownThread(long threadId) {
+            return threads != null && threads.get(threadId) == null;
+        }
+        
+        void addThread(long threadId, String name, long osThreadId) {
+            threads.put(threadId, new SampledThread((name == null || name.isEmpty()) ? "thread " + threadId : name, osThreadId));
+        }
+        
+        // Record the cumulative energy readings of an EnergySample event
+        void addEnergySample(long epochNanos, double[] joules) {
+            if (recordedPower == null) recordedPower = new PowerTimeline();
+            recordedPower.addEnergyReadings(epochNanos, EnergySample.DOMAINS, joules);
+        }
+        
+        // Share of the samples, or of the sampled time when samples are weighted by their gaps
+        double weightedShare(int methodId) {
+            if (weights == null) return (totalSamples == 0) ? 0.0 : samples(methodId) / (double) totalSamples;
+            double total = weights.totalNanos();
+            return (total == 0) ? 0.0 : weights.weightNanos(methodId) / total;
         }
         
-        // Set duration based on timestamps
-        void setDuration(Instant start, Instant end) {
-            this.start = start;
-            this.end = end;
-            if (start != null && end != null) {
+        // Samples of a method; an estimate, possibly over, when counted by the heavy-hitter sketch
+        long samples(int methodId) {
+            if (heavyHitters != null) return Math.round(heavyHitters.estimate(methodId));
+            return (methodId < counts.length) ? counts[methodId] : 0;
+        }
+        
+        // Widen the observed recording window to include a sample timestamp
+        void observeTimestamp(Instant timestamp) {
+            observeNanos(timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano());
+        }
+        
+        // Same as observeTimestamp, for decoders that work in epoch nanos
+        void observeNanos(long epochNanos) {
+            sampleNanos = epochNanos;
+            if (epochNanos < startNanos) startNanos = epochNanos;
+            if (epochNanos > endNanos) endNanos = epochNanos;
+        }
+        
+        // Fold the counts and time window of another (e.g. per-chunk) result into this one
+        void merge(JfrResult other) {
+            // Method ids are local to each dictionary, so remap through the method identity
+            int[] remap = new int[other.methods.size()];
+            for (int id = 0; id < remap.length; id++) {
+                remap[id] = methods.intern(other.methods.className(id), other.methods.methodName(id),
+                        other.methods.descriptor(id));
+                long n = (other.heavyHitters != null) ? 0 : other.samples(id);
+                if (n == 0) continue;
+                int mine = remap[id];
+                if (mine >= counts.length) counts = Arrays.copyOf(counts, Math.max(mine + 1, counts.length * 2));
+                counts[mine] += n;
+            }
+            if (heavyHitters != null && other.heavyHitters != null) heavyHitters.merge(other.heavyHitters, remap);
+            if (weights != null && other.weights != null) weights.merge(other.weights, remap);
+            if (threadCounts != null && other.threadCounts != null) threadCounts.merge(other.threadCounts, remap);
+            if (threads != null && other.threads != null) {
+                other.threads.forEach((threadId, thread) -> {
+                    if (threads.get(threadId) == null) threads.put(threadId, thread);
+                });
+            }
+            if (cpuTimelines != null && other.cpuTimelines != null) {
+                for (int cpu = 0; cpu < other.cpuTimelines.length; cpu++) {
+                    if (other.cpuTimelines[cpu] != null) cpuTimeline(cpu).append(other.cpuTimelines[cpu], remap);
+                }
+                unplacedSamples += other.unplacedSamples;
+            }
+            if (callTree != null && other.callTree != null) {
+                int[] nodeMap = callTree.merge(other.callTree, remap);
+                if (nodeWeights != null && other.nodeWeights != null) nodeWeights.merge(other.nodeWeights, nodeMap);
+            }
+            if (sampleTimeline != null && other.sampleTimeline != null) sampleTimeline.append(other.sampleTimeline, remap);
+            if (other.recordedPower != null) {
+                if (recordedPower == null) recordedPower = new PowerTimeline();
+                recordedPower.append(other.recordedPower);
+            }
+            totalSamples += other.totalSamples;
+            stackCache.addStats(other.stackCache);
+            if (other.startNanos <= other.endNanos) {
+                observeNanos(other.startNanos);
+                observeNanos(other.endNanos);
+            }
+        }
+        
+        // Set start/end and duration based on the observed timestamps
+        void finish() {
+            if (startNanos <= endNanos) {
+                start = Instant.ofEpochSecond(0, startNanos);
+                end = Instant.ofEpochSecond(0, endNanos);
                 this.durationSec = Duration.between(start, end).toMillis() / 1000.0;
             }
+            if (sampleTimeline != null) sampleTimeline.sort();
+            if (cpuTimelines != null) {
+                for (SampleTimeline t : cpuTimelines) {
+                    if (t != null) t.sort();
+                }
+            }
+            if (recordedPower != null) recordedPower.sortByTime();
+            if (weights != null) weights.finish();
+            if (nodeWeights != null) nodeWeights.finish();
         }
     }
 
     // Reads ExecutionSample events and computes min/max timestamps
-    private static JfrResult loadMethodSamplesAndDuration(Path jfrPath) throws IOException {
-        JfrResult result = new JfrResult();
-        Instant startTime = null;
-        Instant endTime = null;
+    private static JfrResult loadMethodSamplesAndDuration(Path jfrPath, JfrOptions options) throws IOException {
+        List<JfrChunkIndex.Chunk> all = JfrChunkIndex.read(jfrPath);
+        List<JfrChunkIndex.Chunk> chunks = options.hasRange() ? options.chunks(jfrPath) : all;
+        JfrResult result;
+        if (chunks.size() == all.size()) {
+            result = readExecutionSamples(jfrPath, options);
+        } else if (chunks.isEmpty()) {
+            result = new JfrResult(options);
+        } else {
+            // RecordingFile reads whole files, so copy out the chunks in the time range
+            Path tempDir = Files.createTempDirectory("jfr-chunks");
+            Path rangeFile = JfrChunkIndex.extract(jfrPath, chunks, tempDir);
+            try {
+                result = readExecutionSamples(rangeFile, options);
+            } finally {
+                Files.deleteIfExists(rangeFile);
+                Files.deleteIfExists(tempDir);
+            }
+        }
+        result.finish();
+        return result;
+    }
+    
+    // Splits the recording on its chunk boundaries and decodes the chunks concurrently,
+    // each into its own JfrResult, merging them in chunk order as they complete; at most
+    // two results per thread are in flight, so memory does not grow with the chunk count.
+    // Sample counts match the sequential path; timestamps use each chunk's own time base
+    private static JfrResult loadMethodSamplesAndDurationParallel(Path jfrPath, JfrOptions options, int parallelism,
+                                                                  boolean fastDecoder) throws Exception {
+        List<JfrChunkIndex.Chunk> chunks = options.chunks(jfrPath);
+        System.out.printf("Decoding %d JFR chunk(s) on %d thread(s)%n", chunks.size(), parallelism);
+        if (chunks.size() <= 1 || parallelism <= 1) {
+            return fastDecoder ? loadMethodSamplesFast(jfrPath, options) : loadMethodSamplesAndDuration(jfrPath, options);
+        }
+        
+        Path tempDir = Files.createTempDirectory("jfr-chunks");
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, chunks.size()));
+        try {
+            int window = 2 * pool.getParallelism();
+            Deque<Future<JfrResult>> inFlight = new ArrayDeque<>(window);
+            JfrResult result = new JfrResult(options);
+            int next = 0;
+            while (next < chunks.size() || !inFlight.isEmpty()) {
+                while (next < chunks.size() && inFlight.size() < window) {
+                    JfrChunkIndex.Chunk chunk = chunks.get(next++);
+                    inFlight.add(pool.submit(() -> {
+                        // The mapped decoder reads the chunk in place; RecordingFile needs its own file
+                        if (fastDecoder) return readExecutionSamplesFast(jfrPath, List.of(chunk), options);
+                        Path chunkFile = JfrChunkIndex.extract(jfrPath, chunk, tempDir);
+                        try {
+                            return readExecutionSamples(chunkFile, options);
+                        } finally {
+                            Files.deleteIfExists(chunkFile);
+                        }
+                    }));
+                }
+                result.merge(inFlight.poll().get());
+            }
+            result.finish();
+            return result;
+        } finally {
+            pool.shutdownNow();
+            Files.deleteIfExists(tempDir);
+        }
+    }
+    
+    // Reads every ExecutionSample of a recording (or a single extracted chunk) into a fresh result
+    private static JfrResult readExecutionSamples(Path jfrPath, JfrOptions options) {
+        JfrResult result = new JfrResult(options);
         
         try (RecordingFile recordingFile = new RecordingFile(jfrPath)) {
             while (recordingFile.hasMoreEvents()) {
+                // Cancelled by a failing pipeline stage; the partial result is discarded
+                if (Thread.currentThread().isInterrupted()) break;
                 RecordedEvent event = recordingFile.readEvent();
                 if (event.getEventType().getName().equals("jdk.ExecutionSample")) {
+                    if (!options.inRange(PowerIndex.toNanos(event.getStartTime()))) continue;
                     // Update start/end time
-                    Instant timestamp = event.getStartTime();
-                    if (startTime == null || timestamp.isBefore(startTime)) {
-                        startTime = timestamp;
-                    }
-                    if (endTime == null || timestamp.isAfter(endTime)) {
-                        endTime = timestamp;
-                    }
+                    result.observeTimestamp(event.getStartTime());
                     
                     // Process stack trace to find methods of interest
                     processExecutionSample(event, result);
+                } else if (event.getEventType().getName().equals(EnergySample.NAME)) {
+                    double[] joules = new double[EnergySample.FIELDS.length];
+                    for (int i = 0; i < joules.length; i++) joules[i] = event.getDouble(EnergySample.FIELDS[i]);
+                    result.addEnergySample(PowerIndex.toNanos(event.getStartTime()), joules);
                 }
             }
         } catch (Exception e) {
@@ -237,375 +1700,328 @@ public final class EnergyAttribution {
             e.printStackTrace();
         }
         
-        // Set duration based on recorded timestamps
-        result.setDuration(startTime, endTime);
         return result;
     }
     
-    // Process a single execution sample event
-    private static void processExecutionSample(RecordedEvent event, JfrResult result) {
-        RecordedStackTrace stackTrace = event.getStackTrace();
-        if (stackTrace == null || stackTrace.getFrames().isEmpty()) return;
-        
-        // First pass: look for work1-work10 methods
-        boolean foundWorkMethod = false;
-        for (RecordedFrame frame : stackTrace.getFrames()) {
-            String methodName = frame.getMethod().getName();
-            String className = frame.getMethod().getType().getName();
-            
-            // Skip common infrastructure methods
-            if (isInfrastructureMethod(className, methodName)) continue;
+    // Reads ExecutionSample events with the memory-mapped decoder instead of RecordingFile
+    private static JfrResult loadMethodSamplesFast(Path jfrPath, JfrOptions options) throws IOException {
+        JfrResult result = readExecutionSamplesFast(jfrPath, options.chunks(jfrPath), options);
+        result.finish();
+        return result;
+    }
+    
+    private static JfrResult readExecutionSamplesFast(Path jfrPath, List<JfrChunkIndex.Chunk> chunks,
+                                                      JfrOptions options) throws IOException {
+        JfrResult result = new JfrResult(options);
+        DecodedStack stack = new DecodedStack(result.methods);
+        new JfrSampleDecoder(jfrPath).decode(chunks, new JfrSampleDecoder.SampleSink() {
+            @Override
+            public void beginChunk(JfrSampleDecoder.ChunkConstants constants) {
+                stack.beginChunk(constants);
+                result.stackCache.clear(); // stack trace ids are chunk-local
+            }
             
-            // Prioritize finding work1-work10 methods in demo classes
-            if (methodName.startsWith("work") && 
-                (className.equals("demo.Top10Load") || className.endsWith(".Top10Load"))) {
-                String fullMethod = className + "." + methodName;
-                result.addMethodSample(fullMethod);
-                foundWorkMethod = true;
-                break; // Only count one work method per sample
-            }
-        }
-        
-        // Second pass: if no work method, find the most relevant application method
-        if (!foundWorkMethod) {
-            // Look for application methods in the stack, starting from the leaf
-            for (RecordedFrame frame : stackTrace.getFrames()) {
-                String methodName = frame.getMethod().getName();
-                String className = frame.getMethod().getType().getName();
-                
-                // Skip infrastructure methods
-                if (isInfrastructureMethod(className, methodName)) continue;
-                
-                // Use the first application method we find
-                String fullMethod = className + "." + methodName;
-                result.addMethodSample(fullMethod);
-                break;
+            @Override
+            public void executionSample(long startNanos, long threadId, long stackTraceId) {
+                if (!options.inRange(startNanos)) return;
+                result.observeNanos(startNanos);
+                result.sampleThread = threadId;
+                if (result.unknownThread(threadId)) {
+                    result.addThread(threadId, stack.constants.threadName(threadId), stack.constants.osThreadId(threadId));
+                }
+                StackCache cache = result.stackCache;
+                int slot = cache.lookup(stackTraceId);
+                if (slot >= 0) {
+                    result.addSample(slot);
+                    return;
+                }
+                stack.frames = stack.constants.frames(stackTraceId);
+                if (stack.frames == null || stack.frames.length == 0) return;
+                int frame = winningFrame(stack, result.methods, options.rules);
+                int node = (result.callTree == null) ? -1 : result.callTree.insert(stack, stack.methodId(frame));
+                result.addSample(cache.put(stackTraceId, frame, stack.methodId(frame), node));
             }
             
-            // If we still haven't found anything useful, use the leaf method
-            if (!foundWorkMethod && !stackTrace.getFrames().isEmpty()) {
-                RecordedFrame topFrame = stackTrace.getFrames().get(0);
-                String methodName = topFrame.getMethod().getName();
-                String className = topFrame.getMethod().getType().getName();
-                String fullMethod = className + "." + methodName;
-                result.addMethodSample(fullMethod);
+            @Override
+            public void energySample(long startNanos, double[] joules) {
+                result.addEnergySample(startNanos, joules);
             }
-        }
+        });
+        return result;
     }
     
-    // Check if a method is part of Java infrastructure (to be filtered out)
-    private static boolean isInfrastructureMethod(String className, String methodName) {
-        return className.startsWith("java.") || 
-               className.startsWith("jdk.") ||
-               className.startsWith("sun.") ||
-               className.contains("$Lambda$") ||
-               methodName.equals("main") ||
-               methodName.equals("<init>") ||
-               methodName.equals("<clinit>");
+    // Attributes the samples of the recording's sample cache, decoding the recording into a
+    // new cache first if there is none for its current content
+    private static JfrResult loadMethodSamplesCached(Path jfrPath, JfrOptions options) throws IOException {
+        Path cachePath = SampleCache.pathFor(jfrPath);
+        byte[] hash = SampleCache.contentHash(jfrPath);
+        SampleCache samples = SampleCache.open(cachePath, hash);
+        if (samples != null) {
+            System.out.printf("Using sample cache %s (%,d samples, %,d stacks)%n", cachePath, samples.samples, samples.stacks);
+        } else {
+            System.out.println("Building sample cache " + cachePath + " with the memory-mapped decoder");
+            SampleCache.Builder builder = new SampleCache.Builder();
+            new JfrSampleDecoder(jfrPath).decode(builder);
+            samples = builder.build(cachePath, hash);
+        }
+        JfrResult result = readCachedSamples(samples, options);
+        result.finish();
+        return result;
     }
-
-    // Parse Intel Power Gadget CSV and integrate energy over the JFR recording period
-    private static double loadTotalEnergyJ(Path csvPath, Instant jfrStart, Instant jfrEnd) throws IOException {
-        List<String> lines = Files.readAllLines(csvPath);
-        if (lines.isEmpty()) throw new IOException("Empty CSV");
-
-        String header = lines.get(0);
-        if (!header.isEmpty() && header.charAt(0) == '\uFEFF') header = header.substring(1);
-        String[] cols = header.split("\\s*,\\s*");
-
-        int idxEnergy = findCol(cols, PATTERN_ENERGY);
-        int idxElapsed = findCol(cols, PATTERN_ELAPSED);
-        int idxPower = findCol(cols, PATTERN_POWER);
-        int idxSysTime = findCol(cols, PATTERN_SYSTEM_TIME);
-
-        // Try aligned path if we have System Time and JFR bounds
-        boolean canAlign = (idxSysTime >= 0 && jfrStart != null && jfrEnd != null && jfrEnd.isAfter(jfrStart));
-        double totalJAligned = 0.0;
-        boolean alignedUsed = false;
-
-        if (canAlign) {
-            Instant prevT = null;
-            Double prevE = null;
-            Double prevP = null;
-
-            for (int i = 1; i < lines.size(); i++) {
-                String[] c = lines.get(i).split("\\s*,\\s*");
-                if (idxSysTime >= c.length) continue;
-                Instant t = parseSystemTime(c[idxSysTime]);
-                if (t == null) continue;
-
-                if (idxEnergy >= 0 && idxEnergy < c.length) {
-                    double e = parseDouble(c[idxEnergy]);
-                    if (prevT != null && prevE != null) {
-                        double dt = (t.toEpochMilli() - prevT.toEpochMilli()) / 1000.0;
-                        if (dt > 0 && e >= prevE) {
-                            double segJ = (e - prevE);
-                            double overlap = overlapSeconds(prevT, t, jfrStart, jfrEnd);
-                            if (overlap > 0) totalJAligned += segJ * (overlap / dt);
-                            alignedUsed = true;
-                        }
-                    }
-                    prevT = t; prevE = Double.isNaN(e) ? prevE : e;
-                } else if (idxPower >= 0 && idxPower < c.length) {
-                    double p = parseDouble(c[idxPower]);
-                    if (prevT != null && prevP != null) {
-                        double dt = (t.toEpochMilli() - prevT.toEpochMilli()) / 1000.0;
-                        double overlap = overlapSeconds(prevT, t, jfrStart, jfrEnd);
-                        if (dt > 0 && overlap > 0) totalJAligned += Math.max(0, prevP) * overlap;
-                        alignedUsed = true;
-                    }
-                    prevT = t; prevP = Double.NaN; // <-- keep last valid power
-                }
+    
+    // Attributes cached samples exactly as readExecutionSamplesFast does decoded ones; stack
+    // ids are global to the cache, so the stack cache is never cleared. The cache holds the
+    // whole recording, so a time range only filters the samples
+    private static JfrResult readCachedSamples(SampleCache samples, JfrOptions options) throws IOException {
+        JfrResult result = new JfrResult(options);
+        CachedStack stack = new CachedStack(samples);
+        // Interned in cache order into an empty dictionary, so method ids carry over unchanged
+        for (int id = 0; id < samples.methods.size(); id++) {
+            result.methods.intern(samples.methods.className(id), samples.methods.methodName(id),
+                    samples.methods.descriptor(id));
+        }
+        StackCache cache = result.stackCache;
+        for (int i = 0; i < samples.samples; i++) {
+            if ((i & 0xFFFF) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Cached sample attribution cancelled");
             }
+            long nanos = samples.timeNanos(i);
+            if (!options.inRange(nanos)) continue;
+            result.observeNanos(nanos);
+            result.sampleThread = samples.threadId(i);
+            if (result.unknownThread(result.sampleThread)) {
+                result.addThread(result.sampleThread, samples.threadName(result.sampleThread),
+                        samples.osThreadId(result.sampleThread));
+            }
+            int stackId = samples.stackId(i);
+            if (stackId < 0) continue;
+            int slot = cache.lookup(stackId);
+            if (slot < 0) {
+                stack.stack = stackId;
+                int frame = winningFrame(stack, result.methods, options.rules);
+                int node = (result.callTree == null) ? -1 : result.callTree.insert(stack, stack.methodId(frame));
+                slot = cache.put(stackId, frame, stack.methodId(frame), node);
+            }
+            result.addSample(slot);
         }
-
-        if (alignedUsed && totalJAligned > 0) {
-            System.out.printf("Aligned energy over CSV rows by System Time within JFR window [%s .. %s]%n",
-                    jfrStart, jfrEnd);
-            return totalJAligned;
+        double[] joules = new double[EnergySample.DOMAINS.length];
+        for (int r = 0; r < samples.energyRows; r++) {
+            samples.energyJoules(r, joules);
+            result.addEnergySample(samples.energyNanos(r), joules);
         }
-
-        // Fallback: whole-file integration (previous behavior)
-        System.out.println("Warning: Falling back to whole-file energy integration (no usable System Time alignment).");
-
-        double totalJ = 0.0;
-        if (idxEnergy >= 0) {
-            double prev = Double.NaN;
-            for (int i = 1; i < lines.size(); i++) {
-                String[] c = lines.get(i).split("\\s*,\\s*");
-                if (idxEnergy >= c.length) continue;
-                double e = parseDouble(c[idxEnergy]);
-                if (Double.isNaN(prev)) { prev = e; continue; }
-                if (e >= prev) totalJ += (e - prev);
-                prev = e;
-            }
-            if (totalJ == 0.0 && !Double.isNaN(prev)) totalJ = prev;
-            return totalJ;
-        }
-        if (idxPower >= 0 && idxElapsed >= 0) {
-            double prevT = Double.NaN, prevP = Double.NaN;
-            for (int i = 1; i < lines.size(); i++) {
-                String[] c = lines.get(i).split("\\s*,\\s*");
-                if (idxElapsed >= c.length || idxPower >= c.length) continue;
-                double t = parseDouble(c[idxElapsed]);
-                double p = parseDouble(c[idxPower]);
-                if (!Double.isNaN(prevT)) totalJ += Math.max(0, t - prevT) * Math.max(0, prevP);
-                prevT = t; prevP = p;
-            }
-            return totalJ;
-        }
-        throw new IOException("Energy/Power columns not found in header:\n" + lines.get(0));
-    }
-    
-    // Parse Intel Power Gadget CSV and extract energy for a specific core
-    private static double loadCoreSpecificEnergyJ(Path csvPath, int targetCore, 
-                                                 Instant jfrStart, Instant jfrEnd, boolean useIA) throws IOException {
-        List<String> lines = Files.readAllLines(csvPath);
-        if (lines.isEmpty()) throw new IOException("Empty CSV");
-
-        String header = lines.get(0);
-        if (!header.isEmpty() && header.charAt(0) == '\uFEFF') header = header.substring(1);
-        String[] cols = header.split("\\s*,\\s*");
-        
-        // Look specifically for the target core's power or energy column
-        int coreEnergyIdx = -1;
-        int corePowerIdx = -1;
-        int iaEnergyIdx = -1;
-        int iaPowerIdx = -1;
-        
-        // Find standard columns needed for all approaches
-        int idxElapsed = findCol(cols, PATTERN_ELAPSED);
-        int idxSysTime = findCol(cols, PATTERN_SYSTEM_TIME);
-        
-        // First pass: Find all possible columns of interest
-        for (int i = 0; i < cols.length; i++) {
-            String normalized = cols[i]
-                    .toLowerCase(Locale.ROOT)
-                    .replace('_', ' ')
-                    .replace('\uFEFF', ' ')
-                    .replaceAll("\\s+", " ")
-                    .trim();
-            
-            // Core-specific energy columns
-            if (normalized.matches("(?i).*core\\s*" + targetCore + "\\s*energy.*") || 
-                normalized.matches("(?i).*processor\\s*" + targetCore + "\\s*energy.*") ||
-                normalized.matches("(?i).*ia\\s*core\\s*" + targetCore + "\\s*energy.*") ||
-                normalized.matches("(?i).*cumulative\\s*ia\\s*energy " + targetCore + ".*") ||
-                normalized.contains("ia energy " + targetCore)) {
-                coreEnergyIdx = i;
-                System.out.println("Found Core " + targetCore + " energy column: " + cols[i]);
-            }
-            
-            // Core-specific power columns
-            if (normalized.matches("(?i).*core\\s*" + targetCore + "\\s*power.*") || 
-                normalized.matches("(?i).*processor\\s*" + targetCore + "\\s*power.*") ||
-                normalized.matches("(?i).*ia\\s*core\\s*" + targetCore + "\\s*power.*") ||
-                normalized.matches("(?i).*ia\\s*power " + targetCore + ".*")) {
-                corePowerIdx = i;
-                System.out.println("Found Core " + targetCore + " power column: " + cols[i]);
+        return result;
+    }
+    
+    // Describe the first difference between two decoded results, or null if they agree
+    private static String compareResults(JfrResult a, JfrResult b) {
+        a.finish();
+        b.finish();
+        if (a.totalSamples != b.totalSamples) {
+            return "total samples " + a.totalSamples + " vs " + b.totalSamples;
+        }
+        if (a.startNanos != b.startNanos || a.endNanos != b.endNanos) {
+            return "recording window [" + a.start + " .. " + a.end + "] vs [" + b.start + " .. " + b.end + "]";
+        }
+        if (a.sampleTimeline != null && b.sampleTimeline != null) {
+            if (a.sampleTimeline.size() != b.sampleTimeline.size()) {
+                return "timed samples " + a.sampleTimeline.size() + " vs " + b.sampleTimeline.size();
             }
-            
-            // IA metrics (useful when specified or as fallback)
-            if (normalized.contains("ia energy") && 
-                !normalized.contains(String.valueOf(targetCore)) && 
-                normalized.contains("cumulative")) {
-                iaEnergyIdx = i;
-                System.out.println("Found IA energy column: " + cols[i]);
+            // Both timelines are sorted; report the largest timestamp disagreement, not just the first
+            long skew = 0;
+            int at = -1;
+            for (int i = 0; i < a.sampleTimeline.size(); i++) {
+                long d = Math.abs(a.sampleTimeline.nanos(i) - b.sampleTimeline.nanos(i));
+                if (d > skew) {
+                    skew = d;
+                    at = i;
+                }
             }
-            
-            if (normalized.contains("ia power") && 
-                !normalized.contains(String.valueOf(targetCore))) {
-                iaPowerIdx = i;
-                System.out.println("Found IA power column: " + cols[i]);
+            if (at >= 0) {
+                return "sample timestamps differ by up to " + skew + " ns (sample " + at + " at "
+                        + Instant.ofEpochSecond(0, a.sampleTimeline.nanos(at)) + " vs " + Instant.ofEpochSecond(0, b.sampleTimeline.nanos(at)) + ")";
             }
         }
-        
-        // Choose the appropriate column based on priority and availability
-        int energyColumnToUse = -1;
-        int powerColumnToUse = -1;
-        
-        // If user specifically requests IA metrics
-        if (useIA) {
-            energyColumnToUse = iaEnergyIdx;
-            powerColumnToUse = iaPowerIdx;
-            System.out.println("Using IA metrics as requested via --use-ia");
+        if (a.heavyHitters != null && b.heavyHitters == null) {
+            Map<String, Double> exact = new HashMap<>();
+            countsByName(b).forEach((method, n) -> exact.put(method, (double) n));
+            String violation = checkBounds("samples", a.heavyHitters, a.methods, exact, 0.0);
+            if (violation == null && a.weights != null && b.weights != null) {
+                Map<String, Double> exactNanos = new HashMap<>();
+                for (int id = 0; id < b.methods.size(); id++) {
+                    if (b.weights.weightNanos(id) > 0) exactNanos.put(b.methods.qualifiedName(id), b.weights.weightNanos(id));
+                }
+                // Fractional weights are summed in a different order; allow for rounding only
+                violation = checkBounds("sampled nanos", a.weights.sketch(), a.methods, exactNanos, 1e-9 * b.weights.totalNanos());
+            }
+            if (violation != null) return violation;
         } else {
-            // Otherwise prefer core-specific columns
-            energyColumnToUse = coreEnergyIdx;
-            powerColumnToUse = corePowerIdx;
-            
-            // Fall back to IA metrics for core 0 if needed
-            if ((energyColumnToUse == -1 || powerColumnToUse == -1) && targetCore == 0) {
-                System.out.println("WARNING: No Core 0 specific power/energy columns found, falling back to package energy");
-                if (energyColumnToUse == -1) energyColumnToUse = iaEnergyIdx;
-                if (powerColumnToUse == -1) powerColumnToUse = iaPowerIdx;
+            Map<String, Long> byMethodA = countsByName(a);
+            Map<String, Long> byMethodB = countsByName(b);
+            if (!byMethodA.equals(byMethodB)) {
+                for (String method : byMethodA.keySet()) {
+                    if (!byMethodA.get(method).equals(byMethodB.get(method))) {
+                        return method + ": " + byMethodA.get(method) + " vs " + byMethodB.get(method) + " samples";
+                    }
+                }
+                return byMethodB.size() + " methods vs " + byMethodA.size();
             }
         }
-        
-        // Process energy column if available
-        if (energyColumnToUse >= 0) {
-            // Direct energy integration from the core's energy column
-            double totalJ = 0.0;
-            double prev = Double.NaN;
-            for (int i = 1; i < lines.size(); i++) {
-                String[] c = lines.get(i).split("\\s*,\\s*");
-                if (energyColumnToUse >= c.length) continue;
-                double e = parseDouble(c[energyColumnToUse]);
-                if (Double.isNaN(prev)) { prev = e; continue; }
-                if (e >= prev) totalJ += (e - prev);
-                prev = e;
+        if (a.threadCounts != null && b.threadCounts != null) {
+            Map<String, Long> byThreadA = countsByThread(a);
+            Map<String, Long> byThreadB = countsByThread(b);
+            if (!byThreadA.equals(byThreadB)) return "samples per thread " + byThreadA + " vs " + byThreadB;
+        }
+        return null;
+    }
+    
+    // Check count - error <= exact <= count for every method of a sketch, and exact <= maxError
+    // for the methods without a counter; returns the first violation, or null
+    private static String checkBounds(String what, SpaceSaving sketch, MethodDictionary methods,
+                                      Map<String, Double> exact, double slack) {
+        Set<String> seen = new HashSet<>();
+        for (int id = 0; id < methods.size(); id++) {
+            String method = methods.qualifiedName(id);
+            seen.add(method);
+            double truth = exact.getOrDefault(method, 0.0), count = sketch.estimate(id);
+            double lower = (count == 0) ? 0.0 : count - sketch.errorOf(id), upper = (count == 0) ? sketch.maxError() : count;
+            if (truth < lower - slack || truth > upper + slack) {
+                return String.format("%s: %,.0f exact %s outside the heavy-hitter bound [%,.0f, %,.0f]", method, truth, what, lower, upper);
             }
-            if (totalJ > 0 || !Double.isNaN(prev)) {
-                return totalJ > 0 ? totalJ : prev;
+        }
+        for (Map.Entry<String, Double> e : exact.entrySet()) {
+            if (!seen.contains(e.getKey()) && e.getValue() > sketch.maxError() + slack) {
+                return String.format("%s: %,.0f exact %s above the heavy-hitter bound %,.0f", e.getKey(), e.getValue(), what, sketch.maxError());
             }
         }
+        return null;
+    }
+    
+    private static Map<String, Long> countsByName(JfrResult r) {
+        Map<String, Long> byName = new HashMap<>();
+        for (int id = 0; id < r.methods.size(); id++) {
+            if (r.samples(id) > 0) byName.put(r.methods.qualifiedName(id), r.samples(id));
+        }
+        return byName;
+    }
+    
+    private static Map<String, Long> countsByThread(JfrResult r) {
+        Map<String, Long> byThread = new TreeMap<>();
+        r.threadCounts.forEach((threadId, methodId, n) ->
+                byThread.merge(r.threads.get(threadId).name + " [" + threadId + "]", n, Long::sum));
+        return byThread;
+    }
+    
+    // Read-only view of the frames of one sampled stack, leaf frame first, as method ids
+    interface StackFrames {
+        int depth();
+        int methodId(int i);
+    }
+    
+    // RecordingFile stack trace
+    static final class RecordedStack implements StackFrames {
+        final List<RecordedFrame> frames;
+        final MethodDictionary methods;
         
-        // If no energy column or it yielded no results, try power column
-        if (powerColumnToUse >= 0 && idxElapsed >= 0) {
-            double totalJ = 0.0;
-            double prevTime = -1;
-            double prevPower = 0;
-            
-            for (int i = 1; i < lines.size(); i++) {
-                String[] c = lines.get(i).split("\\s*,\\s*");
-                if (powerColumnToUse >= c.length || idxElapsed >= c.length) continue;
-                double p = parseDouble(c[powerColumnToUse]);
-                double t = parseDouble(c[idxElapsed]);
-                
-                if (prevTime < 0) { // First row
-                    prevTime = t;
-                    prevPower = p;
-                    continue;
-                }
-                
-                // Integrate power over time
-                if (t > prevTime) {
-                    totalJ += Math.max(0, prevPower) * (t - prevTime);
-                    prevTime = t;
-                    prevPower = p;
-                }
-                else if (t == prevTime) {
-                    prevPower = (prevPower + p) / 2.0; // Average out duplicates
-                }
-            }
-            
-            if (totalJ > 0) {
-                return totalJ;
-            }
+        RecordedStack(List<RecordedFrame> frames, MethodDictionary methods) {
+            this.frames = frames;
+            this.methods = methods;
         }
         
-        // If we couldn't find any usable metrics, fall back to total package energy
-        System.out.println("WARNING: No usable core-specific or IA metrics found, falling back to package energy");
-        return loadTotalEnergyJ(csvPath, jfrStart, jfrEnd);
+        public int depth() { return frames.size(); }
+        public int methodId(int i) { return methods.idOf(frames.get(i).getMethod()); }
     }
-
-    // Find column index that matches a pattern
-    private static int findCol(String[] header, Pattern p) {
-        for (int i = 0; i < header.length; i++) {
-            if (p.matcher(header[i]).find()) return i;
+    
+    // Memory-mapped decoder stack trace, resolved through the chunk's constant pools
+    private static final class DecodedStack implements StackFrames {
+        final MethodDictionary methods;
+        final LongMap<Integer> idByMethodKey = new LongMap<>(4096); // chunk-local method key -> id
+        JfrSampleDecoder.ChunkConstants constants;
+        long[] frames;
+        
+        DecodedStack(MethodDictionary methods) {
+            this.methods = methods;
         }
-        return -1;
-    }
-
-    // Parse Intel Power Gadget CSV time format (System Time)
-    private static Instant parseSystemTime(String s) {
-        if (s == null || s.trim().isEmpty()) return null;
         
-        // Handle Intel Power Gadget's special format "HH:MM:SS:mmm"
-        try {
-            String[] parts = s.split(":");
-            if (parts.length == 4) {
-                int hours = Integer.parseInt(parts[0]);
-                int minutes = Integer.parseInt(parts[1]);
-                int seconds = Integer.parseInt(parts[2]);
-                int millis = Integer.parseInt(parts[3]);
-                
-                return LocalTime.of(hours, minutes, seconds, millis * 1_000_000)
-                        .atDate(LocalDate.now())
-                        .atZone(ZoneId.systemDefault())
-                        .toInstant();
-            }
-        } catch (Exception e) {
-            // Fall through to other formats
+        void beginChunk(JfrSampleDecoder.ChunkConstants constants) {
+            this.constants = constants;
+            idByMethodKey.clear();
         }
-
-        try {
-            // Try format: "2023-03-15 10:15:30.123456"
-            return LocalDateTime.parse(s, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS"))
-                    .atZone(ZoneId.systemDefault())
-                    .toInstant();
-        } catch (DateTimeParseException e1) {
-            try {
-                // Try alternate format without microseconds: "2023-03-15 10:15:30"
-                return LocalDateTime.parse(s, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
-                        .atZone(ZoneId.systemDefault())
-                        .toInstant();
-            } catch (DateTimeParseException e2) {
-                System.err.println("Invalid time format: " + s);
-                return null;
+        
+        public int depth() { return frames.length; }
+        
+        public int methodId(int i) {
+            long key = frames[i];
+            Integer id = idByMethodKey.get(key);
+            if (id == null) {
+                id = methods.intern(constants.className(key), constants.methodName(key), constants.descriptor(key));
+                idByMethodKey.put(key, id);
             }
+            return id;
         }
     }
-
-    // Overlap in seconds between two intervals [aStart, aEnd] and [bStart, bEnd]
-    private static double overlapSeconds(Instant aStart, Instant aEnd, Instant bStart, Instant bEnd) {
-        if (aStart == null || aEnd == null || bStart == null || bEnd == null) return 0;
-        if (aEnd.isBefore(bStart) || bEnd.isBefore(aStart)) return 0;
+    
+    // Stack of a sample cache
+    private static final class CachedStack implements StackFrames {
+        final SampleCache samples;
+        int stack;
         
-        Instant latestStart = aStart.isAfter(bStart) ? aStart : bStart;
-        Instant earliestEnd = aEnd.isBefore(bEnd) ? aEnd : bEnd;
+        CachedStack(SampleCache samples) {
+            this.samples = samples;
+        }
         
-        long overlapMs = Duration.between(latestStart, earliestEnd).toMillis();
-        return Math.max(0, overlapMs / 1000.0);
+        public int depth() { return samples.depth(stack); }
+        public int methodId(int i) { return samples.methodId(stack, i); }
     }
-
-    // Parse double with NaN handling
-    private static double parseDouble(String s) {
-        if (s == null || s.trim().isEmpty()) return Double.NaN;
-        try {
-            return Double.parseDouble(s);
-        } catch (NumberFormatException e) {
-            return Double.NaN;
+    
+    // Process a single execution sample event
+    private static void processExecutionSample(RecordedEvent event, JfrResult result) {
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) return;
+        RecordedThread thread = event.getThread("sampledThread");
+        result.sampleThread = (thread == null) ? -1 : thread.getId();
+        if (thread != null && result.unknownThread(thread.getId())) {
+            result.addThread(thread.getId(), (thread.getJavaName() != null) ? thread.getJavaName() : thread.getOSName(),
+                    thread.getOSThreadId());
+        }
+        // As attributeStack, but through addSample so the call tree node is weighed too
+        StackCache cache = result.stackCache;
+        int slot = cache.lookup(stackTrace);
+        if (slot < 0) {
+            RecordedStack stack = new RecordedStack(stackTrace.getFrames(), result.methods);
+            int frame = winningFrame(stack, result.methods, result.rules);
+            int node = (result.callTree == null) ? -1 : result.callTree.insert(stack, stack.methodId(frame));
+            slot = cache.put(stackTrace, frame, stack.methodId(frame), node);
+        }
+        result.addSample(slot);
+    }
+    
+    // Index of the frame that owns a sampled stack (leaf = 0): the first root frame, else the
+    // first frame that is not excluded, else the leaf
+    static int winningFrame(StackFrames stack, MethodDictionary methods, FrameRules rules) {
+        int depth = stack.depth();
+        int firstApplicationFrame = -1;
+        for (int f = 0; f < depth; f++) {
+            byte kind = methods.frameKind(stack.methodId(f), rules);
+            
+            // Skip infrastructure methods
+            if (kind == FrameRules.EXCLUDED) continue;
+            if (kind == FrameRules.ROOT) return f;
+            if (firstApplicationFrame < 0) firstApplicationFrame = f;
+        }
+        return (firstApplicationFrame >= 0) ? firstApplicationFrame : 0;
+    }
+    
+    // Credit a sampled stack to the method that owns it (and to its call-tree path, if a
+    // tree is given), memoizing the decision per stack
+    static void attributeStack(Object stackKey, StackFrames stack, MethodDictionary methods, FrameRules rules,
+                               StackCache cache, CallTree tree, MethodCounter result) {
+        int slot = cache.lookup(stackKey);
+        if (slot < 0) {
+            int frame = winningFrame(stack, methods, rules);
+            int node = (tree == null) ? -1 : tree.insert(stack, stack.methodId(frame));
+            slot = cache.put(stackKey, frame, stack.methodId(frame), node);
         }
+        if (tree != null) tree.addSamples(cache.node(slot), 1);
+        result.addMethodSample(cache.methodId(slot));
     }
 }
\ No newline at end of file
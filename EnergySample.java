@@ -0,0 +1,43 @@
+package demo;
+
+import jdk.jfr.*;
+
+/**
+ * EnergySample - Cumulative energy of the power domains, committed into the JFR recording
+ * by {@link PowerSampler} so power and execution samples share the recording's clock.
+ * Domains the power source does not measure are NaN.
+ */
+@Name(EnergySample.NAME)
+@Label("Energy Sample")
+@Category("Energy")
+@Description("Cumulative energy per power domain since the sampler started")
+@StackTrace(false)
+final class EnergySample extends Event {
+    static final String NAME = "demo.EnergySample";
+
+    // Timeline domains of the fields, in field order
+    static final String[] DOMAINS = { PowerTimeline.PACKAGE, PowerTimeline.IA, PowerTimeline.UNCORE, PowerTimeline.DRAM };
+    static final String[] FIELDS = { "packageJoules", "iaJoules", "uncoreJoules", "dramJoules" };
+
+    @Label("Package Energy (J)")
+    double packageJoules = Double.NaN;
+
+    @Label("IA Energy (J)")
+    double iaJoules = Double.NaN;
+
+    @Label("Uncore Energy (J)")
+    double uncoreJoules = Double.NaN;
+
+    @Label("DRAM Energy (J)")
+    double dramJoules = Double.NaN;
+
+    // Set the field of a domain from DOMAINS by index
+    void set(int domain, double joules) {
+        switch (domain) {
+            case 0: packageJoules = joules; break;
+            case 1: iaJoules = joules; break;
+            case 2: uncoreJoules = joules; break;
+            default: dramJoules = joules; break;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * FrameRules - Decides which frame of a sampled stack "owns" the sample.
+ *
+ * A rules file has one rule per line: an action followed by one or more field patterns,
+ * all of which must match. Blank lines and lines starting with '#' are ignored.
+ * <pre>
+ *   exclude class java.*                  # infrastructure, skipped when picking a frame
+ *   include class java.util.regex.*       # overrides exclude
+ *   root    class *.Top10Load method work*  # preferred owner of the sample
+ * </pre>
+ * Fields are {@code package}, {@code class}, {@code method} and {@code descriptor}; patterns
+ * are exact, {@code prefix*}, {@code *suffix}, {@code *infix*} or {@code *}. All patterns of a
+ * field are compiled once into a prefix trie, a reversed suffix trie and an Aho-Corasick
+ * automaton, so classifying a name is a single pass over its characters. Callers memoize
+ * the result per method id (see {@link MethodDictionary#frameKind}).
+ */
+final class FrameRules {
+    // Frame classifications
+    static final byte APPLICATION = 0;
+    static final byte EXCLUDED = 1;
+    static final byte ROOT = 2;
+
+    // Built-in rules reproducing the original Top10Load behaviour
+    static final List<String> DEFAULT_RULES = List.of(
+            "exclude class java.*",
+            "exclude class jdk.*",
+            "exclude class sun.*",
+            "exclude class *$Lambda$*",
+            "exclude method main",
+            "exclude method <init>",
+            "exclude method <clinit>",
+            "root class *.Top10Load method work*");
+
+    private static final String[] FIELDS = { "package", "class", "method", "descriptor" };
+    private static final int PACKAGE = 0, CLASS = 1, METHOD = 2, DESCRIPTOR = 3;
+
+    private final PatternSet[] patterns = new PatternSet[FIELDS.length];
+    private final long[][] unconstrained = new long[FIELDS.length][]; // rules with no pattern on a field
+    private final long[] includeRules;
+    private final long[] excludeRules;
+    private final long[] rootRules;
+    private final int ruleCount;
+
+    private FrameRules(List<String[]> rules, String source) throws IOException {
+        ruleCount = rules.size();
+        int words = (ruleCount + 63) / 64;
+        includeRules = new long[words];
+        excludeRules = new long[words];
+        rootRules = new long[words];
+        for (int f = 0; f < FIELDS.length; f++) {
+            patterns[f] = new PatternSet(words);
+            unconstrained[f] = new long[words];
+            Arrays.fill(unconstrained[f], -1L);
+        }
+        for (int r = 0; r < ruleCount; r++) {
+            String[] tokens = rules.get(r);
+            long bit = 1L << (r & 63);
+            switch (tokens[0]) {
+                case "include": includeRules[r >>> 6] |= bit; break;
+                case "exclude": excludeRules[r >>> 6] |= bit; break;
+                case "root": rootRules[r >>> 6] |= bit; break;
+                default: throw new IOException(source + ": unknown rule action '" + tokens[0] + "' in: " + String.join(" ", tokens));
+            }
+            if (tokens.length < 3 || tokens.length % 2 == 0) {
+                throw new IOException(source + ": expected <action> (<field> <pattern>)+ in: " + String.join(" ", tokens));
+            }
+            for (int t = 1; t < tokens.length; t += 2) {
+                int field = Arrays.asList(FIELDS).indexOf(tokens[t]);
+                if (field < 0) throw new IOException(source + ": unknown field '" + tokens[t] + "' in: " + String.join(" ", tokens));
+                try {
+                    patterns[field].add(tokens[t + 1], r);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(source + ": " + e.getMessage() + " in: " + String.join(" ", tokens));
+                }
+                unconstrained[field][r >>> 6] &= ~bit;
+            }
+        }
+        for (PatternSet p : patterns) p.compile();
+    }
+
+    static FrameRules defaults() {
+        try {
+            return parse(DEFAULT_RULES, "built-in rules");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static FrameRules load(Path rulesFile) throws IOException {
+        return parse(Files.readAllLines(rulesFile), rulesFile.toString());
+    }
+
+    static FrameRules parse(List<String> lines, String source) throws IOException {
+        List<String[]> rules = new ArrayList<>();
+        for (String line : lines) {
+            int hash = line.indexOf('#');
+            String text = (hash >= 0 ? line.substring(0, hash) : line).trim();
+            if (!text.isEmpty()) rules.add(text.split("\\s+"));
+        }
+        return new FrameRules(rules, source);
+    }
+
+    int size() {
+        return ruleCount;
+    }
+
+    // Classify one method; strings are scanned once per field
+    byte classify(String className, String methodName, String descriptor) {
+        int dot = className.lastIndexOf('.');
+        String pkg = (dot < 0) ? "" : className.substring(0, dot);
+        long[] matched = match(PACKAGE, pkg);
+        and(matched, match(CLASS, className), unconstrained[CLASS]);
+        and(matched, match(METHOD, methodName), unconstrained[METHOD]);
+        and(matched, match(DESCRIPTOR, descriptor), unconstrained[DESCRIPTOR]);
+
+        boolean excluded = intersects(matched, excludeRules) && !intersects(matched, includeRules);
+        if (excluded) return EXCLUDED;
+        return intersects(matched, rootRules) ? ROOT : APPLICATION;
+    }
+
+    private long[] match(int field, String value) {
+        long[] bits = new long[includeRules.length];
+        patterns[field].match(value, bits);
+        if (field == PACKAGE) {
+            for (int w = 0; w < bits.length; w++) bits[w] |= unconstrained[PACKAGE][w];
+        }
+        return bits;
+    }
+
+    private static void and(long[] acc, long[] fieldBits, long[] fieldUnconstrained) {
+        for (int w = 0; w < acc.length; w++) acc[w] &= (fieldBits[w] | fieldUnconstrained[w]);
+    }
+
+    private static boolean intersects(long[] a, long[] b) {
+        for (int w = 0; w < a.length; w++) {
+            if ((a[w] & b[w]) != 0) return true;
+        }
+        return false;
+    }
+
+    // All patterns of one field, compiled into tries and an Aho-Corasick automaton
+    private static final class PatternSet {
+        private final int words;
+        private final Node prefixes = new Node();   // exact and prefix* patterns
+        private final Node suffixes = new Node();   // *suffix patterns, reversed
+        private final Node infixes = new Node();    // *infix* patterns
+        private final long[] any;                   // bare * patterns
+        private boolean hasSuffixes, hasInfixes;
+
+        PatternSet(int words) {
+            this.words = words;
+            this.any = new long[words];
+        }
+
+        void add(String pattern, int rule) {
+            long bit = 1L << (rule & 63);
+            int w = rule >>> 6;
+            boolean leading = pattern.startsWith("*");
+            boolean trailing = pattern.length() > 1 && pattern.endsWith("*");
+            String core = pattern.substring(leading ? 1 : 0, pattern.length() - (trailing ? 1 : 0));
+            if (core.indexOf('*') >= 0) throw new IllegalArgumentException("unsupported pattern '" + pattern + "'");
+            if (core.isEmpty()) {
+                any[w] |= bit;
+            } else if (leading && trailing) {
+                insert(infixes, core, false).here(words)[w] |= bit;
+                hasInfixes = true;
+            } else if (leading) {
+                insert(suffixes, core, true).here(words)[w] |= bit;
+                hasSuffixes = true;
+            } else if (trailing) {
+                insert(prefixes, core, false).here(words)[w] |= bit;
+            } else {
+                insert(prefixes, core, false).exact(words)[w] |= bit;
+            }
+        }
+
+        // Build the failure links and merged outputs of the infix automaton
+        void compile() {
+            Deque<Node> queue = new ArrayDeque<>();
+            for (Node child : infixes.next) {
+                child.fail = infixes;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                for (int i = 0; i < node.keys.length; i++) {
+                    Node child = node.next[i];
+                    Node f = node.fail;
+                    while (f != null && f.step(node.keys[i]) == null) f = f.fail;
+                    child.fail = (f == null) ? infixes : f.step(node.keys[i]);
+                    if (child.fail.here != null) {
+                        long[] out = child.here(words);
+                        for (int w = 0; w < words; w++) out[w] |= child.fail.here[w];
+                    }
+                    queue.add(child);
+                }
+            }
+        }
+
+        void match(String s, long[] into) {
+            or(into, any);
+            Node node = prefixes;
+            for (int i = 0; i < s.length() && node != null; i++) {
+                node = node.step(s.charAt(i));
+                if (node != null) or(into, node.here);
+            }
+            if (node != null) or(into, node.exact);
+
+            if (hasSuffixes) {
+                node = suffixes;
+                for (int i = s.length() - 1; i >= 0 && node != null; i--) {
+                    node = node.step(s.charAt(i));
+                    if (node != null) or(into, node.here);
+                }
+            }
+
+            if (hasInfixes) {
+                node = infixes;
+                for (int i = 0; i < s.length(); i++) {
+                    char c = s.charAt(i);
+                    Node next = node.step(c);
+                    while (next == null && node != infixes) {
+                        node = node.fail;
+                        next = node.step(c);
+                    }
+                    node = (next == null) ? infixes : next;
+                    or(into, node.here);
+                }
+            }
+        }
+
+        private static Node insert(Node root, String s, boolean reversed) {
+            Node node = root;
+            for (int i = 0; i < s.length(); i++) {
+                node = node.child(s.charAt(reversed ? s.length() - 1 - i : i));
+            }
+            return node;
+        }
+
+        private static void or(long[] into, long[] bits) {
+            if (bits == null) return;
+            for (int w = 0; w < into.length; w++) into[w] |= bits[w];
+        }
+    }
+
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] next = new Node[0];
+        long[] here;   // rules matched on reaching this node
+        long[] exact;  // rules matched when the whole input ends here
+        Node fail;
+
+        Node step(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) return next[i];
+            }
+            return null;
+        }
+
+        Node child(char c) {
+            Node n = step(c);
+            if (n != null) return n;
+            keys = Arrays.copyOf(keys, keys.length + 1);
+            next = Arrays.copyOf(next, next.length + 1);
+            keys[keys.length - 1] = c;
+            n = new Node();
+            next[next.length - 1] = n;
+            return n;
+        }
+
+        long[] here(int words) {
+            if (here == null) here = new long[words];
+            return here;
+        }
+
+        long[] exact(int words) {
+            if (exact == null) exact = new long[words];
+            return exact;
+        }
+    }
+}
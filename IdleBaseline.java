@@ -0,0 +1,71 @@
+package demo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * IdleBaseline - The power each domain draws while the machine does nothing, as measured by
+ * {@code EnergyAttribution --measure-idle}.
+ *
+ * The file has one {@code <domain> <watts>} line per power domain, e.g. {@code package 11.8}
+ * or {@code core 3 0.4}; lines starting with '#' are comments. Energy up to the baseline is
+ * static and is not attributed to methods; only the energy above it is.
+ */
+final class IdleBaseline {
+    private final Map<String, Double> watts = new LinkedHashMap<>();
+
+    // A baseline for one domain, e.g. from --idle-baseline <watts>
+    static IdleBaseline of(String domain, double watts) {
+        IdleBaseline baseline = new IdleBaseline();
+        baseline.watts.put(domain, watts);
+        return baseline;
+    }
+
+    static IdleBaseline load(Path file) throws IOException {
+        IdleBaseline baseline = new IdleBaseline();
+        List<String> lines = Files.readAllLines(file);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            // Domain names may hold spaces ("core 3"), so the value is the last field
+            int space = line.lastIndexOf(' ');
+            try {
+                if (space < 0) throw new NumberFormatException("expected <domain> <watts>");
+                double w = Double.parseDouble(line.substring(space + 1));
+                if (!(w >= 0) || Double.isInfinite(w)) throw new NumberFormatException("watts must be a finite non-negative number");
+                baseline.watts.put(line.substring(0, space).trim(), w);
+            } catch (NumberFormatException e) {
+                throw new IOException(file + ":" + (i + 1) + ": invalid idle baseline line '" + line + "'");
+            }
+        }
+        if (baseline.watts.isEmpty()) throw new IOException(file + ": no idle baseline for any domain");
+        return baseline;
+    }
+
+    void write(Path file, String comment) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("# " + comment);
+            out.newLine();
+            for (Map.Entry<String, Double> e : watts.entrySet()) {
+                out.write(String.format(Locale.ROOT, "%s %.6f", e.getKey(), e.getValue()));
+                out.newLine();
+            }
+        }
+    }
+
+    void put(String domain, double watts) {
+        this.watts.put(domain, watts);
+    }
+
+    Set<String> domains() {
+        return Collections.unmodifiableSet(watts.keySet());
+    }
+
+    // Idle watts of a domain, or NaN if the baseline does not cover it
+    double watts(String domain) {
+        Double w = watts.get(domain);
+        return (w == null) ? Double.NaN : w;
+    }
+}
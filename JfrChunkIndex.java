@@ -0,0 +1,104 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * JfrChunkIndex - Locates the self-contained chunks of a JFR recording from their headers
+ * so that each chunk can be decoded independently of the others, and so that chunks
+ * outside a time range of interest can be skipped without being read.
+ */
+final class JfrChunkIndex {
+    // Chunk header layout (see jdk.jfr.internal.consumer.ChunkHeader)
+    static final int HEADER_SIZE = 68;
+    private static final int MAGIC = 0x464C5200; // "FLR\0"
+
+    // Location and time span of a single chunk
+    static final class Chunk {
+        final int index;
+        final long offset;
+        final long size;
+        final long startNanos;
+        final long durationNanos;
+
+        Chunk(int index, long offset, long size, long startNanos, long durationNanos) {
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+
+        // End of the chunk's time span; a chunk still being written has no duration yet
+        long endNanos() {
+            return (durationNanos > 0) ? startNanos + durationNanos : Long.MAX_VALUE;
+        }
+    }
+
+    private JfrChunkIndex() {}
+
+    // Walk the chunk headers of a recording, jumping from one chunk to the next by its size
+    static List<Chunk> read(Path jfrPath) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel ch = FileChannel.open(jfrPath, StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            long offset = 0;
+            while (offset + HEADER_SIZE <= fileSize) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (ch.read(header, offset + header.position()) < 0) break;
+                }
+                if (header.getInt(0) != MAGIC) {
+                    throw new IOException("Not a JFR chunk at offset " + offset + " in " + jfrPath);
+                }
+                long size = header.getLong(8);
+                if (size < HEADER_SIZE || offset + size > fileSize) {
+                    throw new IOException("Truncated or unfinished JFR chunk at offset " + offset + " in " + jfrPath);
+                }
+                chunks.add(new Chunk(chunks.size(), offset, size, header.getLong(32), header.getLong(40)));
+                offset += size;
+            }
+        }
+        return chunks;
+    }
+
+    // Chunks whose time span overlaps [fromNanos, toNanos]; chunks are written in time order,
+    // so they form a contiguous run
+    static List<Chunk> overlapping(List<Chunk> chunks, long fromNanos, long toNanos) {
+        List<Chunk> result = new ArrayList<>();
+        for (Chunk c : chunks) {
+            if (c.startNanos <= toNanos && c.endNanos() >= fromNanos) result.add(c);
+        }
+        return result;
+    }
+
+    // Copy one chunk into its own file, which is then a valid single-chunk recording
+    static Path extract(Path jfrPath, Chunk chunk, Path dir) throws IOException {
+        return extract(jfrPath, List.of(chunk), dir);
+    }
+
+    // Copy a contiguous run of chunks into their own file, a valid recording of just those chunks
+    static Path extract(Path jfrPath, List<Chunk> run, Path dir) throws IOException {
+        Chunk first = run.get(0);
+        Chunk last = run.get(run.size() - 1);
+        long offset = first.offset;
+        long size = last.offset + last.size - offset;
+        Path out = dir.resolve(run.size() == 1 ? "chunk-" + first.index + ".jfr"
+                : "chunks-" + first.index + "-" + last.index + ".jfr");
+        try (FileChannel in = FileChannel.open(jfrPath, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long copied = 0;
+            while (copied < size) {
+                long n = in.transferTo(offset + copied, size - copied, dst);
+                if (n <= 0) throw new IOException("Short read copying chunk " + first.index + " of " + jfrPath);
+                copied += n;
+            }
+        }
+        return out;
+    }
+}
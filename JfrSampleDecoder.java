@@ -0,0 +1,554 @@
+package demo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * JfrSampleDecoder - A purpose-built reader for jdk.ExecutionSample events.
+ *
+ * Memory-maps each chunk of a recording and parses only the chunk header, the metadata,
+ * the class/method/symbol/stacktrace/thread constant pools, the ExecutionSample events and
+ * any {@link EnergySample} events.
+ * Events are handed to a {@link SampleSink} as primitive ids and timestamps, so the
+ * per-event path allocates nothing. {@link jdk.jfr.consumer.RecordingFile} remains the
+ * reference implementation; see EnergyAttribution --verify-decoder.
+ */
+final class JfrSampleDecoder {
+    private static final long METADATA_TYPE_ID = 0;
+    private static final long CHECKPOINT_TYPE_ID = 1;
+    private static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+
+    // Bumped whenever the decoded samples change, which invalidates every SampleCache
+    static final int VERSION = 2;
+
+    // Receives the decoded samples of a recording, one chunk at a time
+    interface SampleSink {
+        // Called before the samples of a chunk; the constants stay valid until the next call
+        void beginChunk(ChunkConstants constants);
+
+        // One jdk.ExecutionSample: epoch nanos, thread and stack trace constant pool keys
+        void executionSample(long startNanos, long threadId, long stackTraceId);
+
+        // One demo.EnergySample: epoch nanos and cumulative joules in EnergySample.DOMAINS order
+        default void energySample(long startNanos, double[] joules) {
+        }
+    }
+
+    // Constant pools of one chunk needed to resolve stack traces into frames
+    static final class ChunkConstants {
+        private final LongMap<String> symbols = new LongMap<>(1024);
+        private final LongMap<long[]> classes = new LongMap<>(1024);      // name symbol
+        private final LongMap<long[]> methods = new LongMap<>(4096);      // class, name symbol, descriptor symbol
+        private final LongMap<long[]> stackTraces = new LongMap<>(4096);  // method ids, leaf first
+        private final LongMap<String> threadNames = new LongMap<>(256);
+        private final LongMap<Long> osThreadIds = new LongMap<>(256);
+
+        // Method ids of a stack trace, leaf frame first, or null if unknown
+        long[] frames(long stackTraceId) {
+            return stackTraces.get(stackTraceId);
+        }
+
+        String className(long methodId) {
+            long[] m = methods.get(methodId);
+            if (m == null) return "";
+            long[] c = classes.get(m[0]);
+            String name = (c == null) ? null : symbols.get(c[0]);
+            return (name == null) ? "" : name.replace('/', '.');
+        }
+
+        String methodName(long methodId) {
+            long[] m = methods.get(methodId);
+            String name = (m == null) ? null : symbols.get(m[1]);
+            return (name == null) ? "" : name;
+        }
+
+        String descriptor(long methodId) {
+            long[] m = methods.get(methodId);
+            String desc = (m == null) ? null : symbols.get(m[2]);
+            return (desc == null) ? "" : desc;
+        }
+
+        String threadName(long threadId) {
+            return threadNames.get(threadId);
+        }
+
+        // Operating system id of a thread, or -1 if unknown
+        long osThreadId(long threadId) {
+            Long tid = osThreadIds.get(threadId);
+            return (tid == null) ? -1 : tid;
+        }
+    }
+
+    // Decoded metadata for one type
+    private static final class TypeDesc {
+        static final int STRUCT = 0, BOOLEAN = 1, BYTE = 2, CHAR = 3, SHORT = 4, INT = 5, LONG = 6,
+                FLOAT = 7, DOUBLE = 8, STRING = 9;
+
+        final long id;
+        final String name;
+        final int kind;
+        final List<FieldDesc> fields = new ArrayList<>();
+
+        TypeDesc(long id, String name) {
+            this.id = id;
+            this.name = name;
+            this.kind = kindOf(name);
+        }
+
+        int fieldIndex(String fieldName) {
+            for (int i = 0; i < fields.size(); i++) {
+                if (fields.get(i).name.equals(fieldName)) return i;
+            }
+            return -1;
+        }
+
+        private static int kindOf(String name) {
+            switch (name) {
+                case "boolean": return BOOLEAN;
+                case "byte": return BYTE;
+                case "char": return CHAR;
+                case "short": return SHORT;
+                case "int": return INT;
+                case "long": return LONG;
+                case "float": return FLOAT;
+                case "double": return DOUBLE;
+                case "java.lang.String": return STRING;
+                default: return STRUCT;
+            }
+        }
+    }
+
+    private static final class FieldDesc {
+        final String name;
+        final long typeId;
+        final boolean constantPool;
+        final boolean array;
+        TypeDesc type;
+
+        FieldDesc(String name, long typeId, boolean constantPool, boolean array) {
+            this.name = name;
+            this.typeId = typeId;
+            this.constantPool = constantPool;
+            this.array = array;
+        }
+    }
+
+    // Node of the metadata element tree
+    private static final class Element {
+        final String name;
+        final Map<String, String> attributes = new HashMap<>();
+        final List<Element> children = new ArrayList<>();
+
+        Element(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Path jfrPath;
+    private ByteBuffer buf;
+    private LongMap<TypeDesc> types;
+    private byte[] stringBuffer = new byte[256];
+
+    // Per-metadata lookups, resolved once per chunk
+    private long executionSampleTypeId = -1;
+    private int sampleTimeField, sampleThreadField, sampleStackField;
+    private TypeDesc sampleType;
+    private long energySampleTypeId = -1;
+    private int energyTimeField;
+    private int[] energySlots;   // per field, index into EnergySample.DOMAINS or -1
+    private TypeDesc energyType;
+    private final double[] energyJoules = new double[EnergySample.FIELDS.length];
+
+    // Time base of the chunks being decoded: RecordingFile keeps the converter of the chunk
+    // that introduced the metadata for every following chunk with the same metadata id, so
+    // this one follows it to give identical timestamps
+    private long timeBaseMetadataId = -1;
+    private long baseStartNanos, baseStartTicks;
+    private double divisor;
+
+    JfrSampleDecoder(Path jfrPath) {
+        this.jfrPath = jfrPath;
+    }
+
+    // Decode every chunk of the recording in file order
+    void decode(SampleSink sink) throws IOException {
+        decode(JfrChunkIndex.read(jfrPath), sink);
+    }
+
+    // Decode the given chunks of the recording in order
+    void decode(List<JfrChunkIndex.Chunk> chunks, SampleSink sink) throws IOException {
+        timeBaseMetadataId = -1;
+        try (FileChannel ch = FileChannel.open(jfrPath, StandardOpenOption.READ)) {
+            for (JfrChunkIndex.Chunk chunk : chunks) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("JFR decoding cancelled");
+                if (chunk.size > Integer.MAX_VALUE) {
+                    throw new IOException("JFR chunk " + chunk.index + " exceeds 2 GB and cannot be mapped");
+                }
+                MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, chunk.offset, chunk.size);
+                decodeChunk(mapped, chunk, sink);
+            }
+        }
+    }
+
+    private void decodeChunk(ByteBuffer chunkBuffer, JfrChunkIndex.Chunk chunk, SampleSink sink) throws IOException {
+        buf = chunkBuffer;
+        int major = buf.getShort(4);
+        if (major != 2) {
+            throw new IOException("Unsupported JFR file version " + major + "." + buf.getShort(6) + " in chunk " + chunk.index);
+        }
+        int chunkSize = (int) chunk.size;
+        long metadataOffset = buf.getLong(24);
+        long metadataId = readMetadata((int) metadataOffset);
+        if (metadataId != timeBaseMetadataId) {
+            timeBaseMetadataId = metadataId;
+            baseStartNanos = buf.getLong(32);
+            baseStartTicks = buf.getLong(48);
+            long ticksPerSecond = buf.getLong(56);
+            // Same conversion as jdk.jfr.internal.consumer.TimeConverter
+            divisor = ticksPerSecond / 1_000_000_000L;
+            if (divisor == 0) divisor = ticksPerSecond / 1e9;
+        }
+
+        // Pass 1: constant pools, which may follow the events that reference them
+        ChunkConstants constants = new ChunkConstants();
+        int pos = JfrChunkIndex.HEADER_SIZE;
+        while (pos < chunkSize) {
+            buf.position(pos);
+            int size = (int) readLong();
+            if (size <= 0) throw new IOException("Event can't have zero size at position " + pos + " in chunk " + chunk.index);
+            if (readLong() == CHECKPOINT_TYPE_ID) readCheckpoint(constants);
+            pos += size;
+        }
+        sink.beginChunk(constants);
+
+        // Pass 2: execution samples and energy samples
+        if (executionSampleTypeId < 0 && energySampleTypeId < 0) return;
+        List<FieldDesc> fields = (sampleType == null) ? List.of() : sampleType.fields;
+        int fieldCount = fields.size();
+        pos = JfrChunkIndex.HEADER_SIZE;
+        while (pos < chunkSize) {
+            buf.position(pos);
+            int size = (int) readLong();
+            long typeId = readLong();
+            if (typeId == executionSampleTypeId) {
+                long ticks = 0, thread = 0, stack = 0;
+                for (int f = 0; f < fieldCount; f++) {
+                    long v = readField(fields.get(f));
+                    if (f == sampleTimeField) ticks = v;
+                    else if (f == sampleThreadField) thread = v;
+                    else if (f == sampleStackField) stack = v;
+                }
+                sink.executionSample(toNanos(ticks), thread, stack);
+            } else if (typeId == energySampleTypeId) {
+                long ticks = readEnergySample();
+                sink.energySample(toNanos(ticks), energyJoules);
+            }
+            pos += size;
+        }
+    }
+
+    private long toNanos(long ticks) {
+        return baseStartNanos + (long) ((ticks - baseStartTicks) / divisor);
+    }
+
+    // Read the fields of an EnergySample event into energyJoules; returns its start ticks
+    private long readEnergySample() {
+        Arrays.fill(energyJoules, Double.NaN);
+        long ticks = 0;
+        List<FieldDesc> fields = energyType.fields;
+        for (int f = 0; f < fields.size(); f++) {
+            if (energySlots[f] >= 0) {
+                energyJoules[energySlots[f]] = buf.getDouble();
+            } else {
+                long v = readField(fields.get(f));
+                if (f == energyTimeField) ticks = v;
+            }
+        }
+        return ticks;
+    }
+
+    // Metadata event: string table followed by an element tree describing every type; returns
+    // the metadata id
+    private long readMetadata(int offset) throws IOException {
+        buf.position(offset);
+        readLong(); // size
+        if (readLong() != METADATA_TYPE_ID) throw new IOException("Expected metadata event at position " + offset);
+        readLong(); // start time
+        readLong(); // duration
+        long metadataId = readLong();
+        int count = (int) readLong();
+        String[] pool = new String[count];
+        for (int i = 0; i < count; i++) pool[i] = readString();
+        Element root = readElement(pool);
+
+        types = new LongMap<>(1024);
+        List<TypeDesc> all = new ArrayList<>();
+        for (Element child : root.children) {
+            if (!child.name.equals("metadata")) continue;
+            for (Element cls : child.children) {
+                if (!cls.name.equals("class")) continue;
+                TypeDesc t = new TypeDesc(Long.parseLong(cls.attributes.get("id")), cls.attributes.get("name"));
+                for (Element f : cls.children) {
+                    if (!f.name.equals("field")) continue;
+                    t.fields.add(new FieldDesc(f.attributes.get("name"),
+                            Long.parseLong(f.attributes.get("class")),
+                            "true".equals(f.attributes.get("constantPool")),
+                            "1".equals(f.attributes.get("dimension"))));
+                }
+                types.put(t.id, t);
+                all.add(t);
+            }
+        }
+
+        executionSampleTypeId = -1;
+        sampleType = null;
+        energySampleTypeId = -1;
+        energyType = null;
+        for (TypeDesc t : all) {
+            for (FieldDesc f : t.fields) {
+                f.type = types.get(f.typeId);
+                if (f.type == null) throw new IOException("Unknown type id " + f.typeId + " for field " + t.name + "." + f.name);
+            }
+            if (t.name.equals(EXECUTION_SAMPLE)) {
+                executionSampleTypeId = t.id;
+                sampleType = t;
+                sampleTimeField = t.fieldIndex("startTime");
+                sampleThreadField = t.fieldIndex("sampledThread");
+                sampleStackField = t.fieldIndex("stackTrace");
+            } else if (t.name.equals(EnergySample.NAME)) {
+                energySampleTypeId = t.id;
+                energyType = t;
+                energyTimeField = t.fieldIndex("startTime");
+                energySlots = new int[t.fields.size()];
+                for (int f = 0; f < energySlots.length; f++) {
+                    FieldDesc fd = t.fields.get(f);
+                    boolean plainDouble = fd.type.kind == TypeDesc.DOUBLE && !fd.array && !fd.constantPool;
+                    energySlots[f] = plainDouble ? Arrays.asList(EnergySample.FIELDS).indexOf(fd.name) : -1;
+                }
+            }
+        }
+        return metadataId;
+    }
+
+    private Element readElement(String[] pool) {
+        Element e = new Element(pool[(int) readLong()]);
+        int attributeCount = (int) readLong();
+        for (int i = 0; i < attributeCount; i++) {
+            String key = pool[(int) readLong()];
+            e.attributes.put(key, pool[(int) readLong()]);
+        }
+        int childCount = (int) readLong();
+        for (int i = 0; i < childCount; i++) e.children.add(readElement(pool));
+        return e;
+    }
+
+    // Checkpoint event: a batch of constant pools, each a list of (key, value) pairs
+    private void readCheckpoint(ChunkConstants constants) throws IOException {
+        readLong(); // start time
+        readLong(); // duration
+        readLong(); // delta to previous checkpoint
+        buf.get();  // checkpoint type
+        int poolCount = (int) readLong();
+        for (int p = 0; p < poolCount; p++) {
+            long typeId = readLong();
+            TypeDesc type = types.get(typeId);
+            if (type == null) throw new IOException("Constant pool of unknown type id " + typeId);
+            int count = (int) readLong();
+            switch (type.name) {
+                case "jdk.types.Symbol":
+                    for (int i = 0; i < count; i++) {
+                        long key = readLong();
+                        constants.symbols.put(key, readSymbol(type));
+                    }
+                    break;
+                case "java.lang.Class":
+                    readRefs(type, count, constants.classes, "name");
+                    break;
+                case "jdk.types.Method":
+                    readRefs(type, count, constants.methods, "type", "name", "descriptor");
+                    break;
+                case "jdk.types.StackTrace":
+                    for (int i = 0; i < count; i++) {
+                        long key = readLong();
+                        constants.stackTraces.put(key, readStackTrace(type));
+                    }
+                    break;
+                case "java.lang.Thread":
+                    for (int i = 0; i < count; i++) {
+                        readThread(type, readLong(), constants);
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < count; i++) {
+                        readLong(); // key
+                        readInline(type);
+                    }
+            }
+        }
+    }
+
+    private String readSymbol(TypeDesc type) {
+        String value = null;
+        for (FieldDesc f : type.fields) {
+            if (f.name.equals("string") && !f.constantPool && !f.array) value = readString();
+            else readField(f);
+        }
+        return value;
+    }
+
+    // Capture the given scalar/reference fields of each pool entry, skip the rest
+    private void readRefs(TypeDesc type, int count, LongMap<long[]> into, String... wanted) {
+        int[] slotOf = new int[type.fields.size()];
+        Arrays.fill(slotOf, -1);
+        for (int w = 0; w < wanted.length; w++) {
+            int idx = type.fieldIndex(wanted[w]);
+            if (idx >= 0) slotOf[idx] = w;
+        }
+        for (int i = 0; i < count; i++) {
+            long key = readLong();
+            long[] value = new long[wanted.length];
+            for (int f = 0; f < slotOf.length; f++) {
+                long v = readField(type.fields.get(f));
+                if (slotOf[f] >= 0) value[slotOf[f]] = v;
+            }
+            into.put(key, value);
+        }
+    }
+
+    private long[] readStackTrace(TypeDesc type) {
+        long[] frames = null;
+        for (FieldDesc f : type.fields) {
+            if (!f.name.equals("frames") || !f.array || f.constantPool) {
+                readField(f);
+                continue;
+            }
+            int n = (int) readLong();
+            frames = new long[n];
+            int methodField = f.type.fieldIndex("method");
+            List<FieldDesc> frameFields = f.type.fields;
+            for (int i = 0; i < n; i++) {
+                for (int ff = 0; ff < frameFields.size(); ff++) {
+                    long v = readField(frameFields.get(ff));
+                    if (ff == methodField) frames[i] = v;
+                }
+            }
+        }
+        return (frames == null) ? new long[0] : frames;
+    }
+
+    // Name (Java name, else OS name) and OS thread id of a thread pool entry
+    private void readThread(TypeDesc type, long key, ChunkConstants constants) {
+        String javaName = null, osName = null;
+        for (FieldDesc f : type.fields) {
+            if (f.type.kind == TypeDesc.STRING && !f.constantPool && !f.array
+                    && (f.name.equals("javaName") || f.name.equals("osName"))) {
+                String s = readString();
+                if (f.name.equals("javaName")) javaName = s; else osName = s;
+            } else if (f.name.equals("osThreadId") && !f.constantPool && !f.array) {
+                constants.osThreadIds.put(key, readInline(f.type));
+            } else {
+                readField(f);
+            }
+        }
+        constants.threadNames.put(key, (javaName != null) ? javaName : osName);
+    }
+
+    // Reads a field and returns its value when it is an integral scalar or a pool reference
+    private long readField(FieldDesc f) {
+        if (f.array) {
+            int n = (int) readLong();
+            for (int i = 0; i < n; i++) readValue(f);
+            return n;
+        }
+        return readValue(f);
+    }
+
+    private long readValue(FieldDesc f) {
+        return f.constantPool ? readLong() : readInline(f.type);
+    }
+
+    private long readInline(TypeDesc t) {
+        switch (t.kind) {
+            case TypeDesc.BOOLEAN:
+            case TypeDesc.BYTE:
+                return buf.get();
+            case TypeDesc.CHAR:
+            case TypeDesc.SHORT:
+            case TypeDesc.INT:
+            case TypeDesc.LONG:
+                return readLong();
+            case TypeDesc.FLOAT:
+                buf.getFloat();
+                return 0;
+            case TypeDesc.DOUBLE:
+                buf.getDouble();
+                return 0;
+            case TypeDesc.STRING:
+                skipString();
+                return 0;
+            default:
+                long last = 0;
+                for (FieldDesc f : t.fields) last = readField(f);
+                // A struct with a single field (e.g. a simple type) is encoded as that field
+                return (t.fields.size() == 1) ? last : 0;
+        }
+    }
+
+    // String encodings: 0 null, 1 empty, 2 pool reference, 3 UTF-8, 4 char array, 5 Latin-1
+    private String readString() {
+        byte encoding = buf.get();
+        switch (encoding) {
+            case 0: return null;
+            case 1: return "";
+            case 2: readLong(); return null;
+            case 3:
+            case 5: {
+                int size = (int) readLong();
+                if (stringBuffer.length < size) stringBuffer = new byte[Math.max(size, stringBuffer.length * 2)];
+                buf.get(stringBuffer, 0, size);
+                return new String(stringBuffer, 0, size,
+                        encoding == 3 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            }
+            case 4: {
+                int size = (int) readLong();
+                char[] chars = new char[size];
+                for (int i = 0; i < size; i++) chars[i] = (char) readLong();
+                return new String(chars);
+            }
+            default:
+                throw new IllegalStateException("Unknown string encoding " + encoding + " at position " + buf.position());
+        }
+    }
+
+    private void skipString() {
+        byte encoding = buf.get();
+        if (encoding == 2) {
+            readLong();
+        } else if (encoding == 3 || encoding == 5) {
+            int size = (int) readLong();
+            buf.position(buf.position() + size);
+        } else if (encoding == 4) {
+            int size = (int) readLong();
+            for (int i = 0; i < size; i++) readLong();
+        } else if (encoding != 0 && encoding != 1) {
+            throw new IllegalStateException("Unknown string encoding " + encoding + " at position " + buf.position());
+        }
+    }
+
+    // Compressed (LEB128-style) integer; the ninth byte carries a full 8 bits
+    private long readLong() {
+        long ret = 0;
+        for (int shift = 0; shift < 56; shift += 7) {
+            byte b = buf.get();
+            ret |= (b & 0x7FL) << shift;
+            if (b >= 0) return ret;
+        }
+        return ret | ((buf.get() & 0xFFL) << 56);
+    }
+}
@@ -0,0 +1,237 @@
+package demo;
+
+import com.sun.tools.attach.VirtualMachine;
+import jdk.jfr.Configuration;
+import jdk.jfr.consumer.EventStream;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.management.jfr.RemoteRecordingStream;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * LiveAttribution - Continuous energy attribution over a JFR event stream.
+ *
+ * ExecutionSample events are counted into a ring of time buckets that together form a
+ * rolling window, and the top-N table for the window is re-printed at a fixed interval.
+ * Memory is bounded by (methods seen) x (bucket count) regardless of how long the stream
+ * runs: buckets are recycled and the per-bucket counts of methods that drop out of the
+ * window are released at each report.
+ */
+final class LiveAttribution implements EnergyAttribution.MethodCounter {
+    // Energy consumed by the monitored domain over [from, to], or NaN if unknown
+    interface EnergyMeter {
+        double energyJ(Instant from, Instant to);
+
+        // Subscribe to the events the meter reads from the stream, if any
+        default void attach(EventStream stream) {
+        }
+    }
+
+    private static final DateTimeFormatter CLOCK = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final int topN;
+    private final long bucketNanos;
+    private final int bucketCount;
+    private final FrameRules rules;
+    private final EnergyMeter meter;
+    private final PrintStream out;
+
+    // method id -> samples per ring slot (null when the method is not in the window)
+    private final MethodDictionary methods = new MethodDictionary();
+    private final StackCache stackCache = new StackCache();
+    private long[][] counts = new long[256][];
+    private final long[] slotBucket;   // absolute bucket number held by each ring slot
+    private final long[] slotTotals;
+    private long latestBucket = Long.MIN_VALUE;
+    private long latestNanos = Long.MIN_VALUE;   // newest sample in the window
+    private int currentSlot = -1;      // slot of the sample being attributed, or -1 to drop it
+    private long lastReportNanos = System.nanoTime();
+    private long droppedLate = 0;
+
+    LiveAttribution(int topN, Duration window, Duration interval, FrameRules rules, EnergyMeter meter, PrintStream out) {
+        if (interval.isZero() || interval.isNegative() || window.compareTo(interval) < 0) {
+            throw new IllegalArgumentException("Window " + window + " must be at least the report interval " + interval);
+        }
+        this.topN = topN;
+        this.bucketNanos = interval.toNanos();
+        this.bucketCount = (int) Math.max(1, window.toNanos() / bucketNanos);
+        this.rules = rules;
+        this.meter = meter;
+        this.out = out;
+        this.slotBucket = new long[bucketCount];
+        this.slotTotals = new long[bucketCount];
+        Arrays.fill(slotBucket, Long.MIN_VALUE);
+    }
+
+    // Attribute one ExecutionSample event into the window
+    void accept(RecordedEvent event) {
+        Instant t = event.getStartTime();
+        long nanos = t.getEpochSecond() * 1_000_000_000L + t.getNano();
+        long bucket = Math.floorDiv(nanos, bucketNanos);
+        currentSlot = slotFor(bucket);
+        if (currentSlot < 0) {
+            droppedLate++;
+            return;
+        }
+        if (nanos > latestNanos) latestNanos = nanos;
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) return;
+        EnergyAttribution.attributeStack(stackTrace, new EnergyAttribution.RecordedStack(stackTrace.getFrames(), methods),
+                methods, rules, stackCache, null, this);
+    }
+
+    @Override
+    public void addMethodSample(int methodId) {
+        if (methodId >= counts.length) counts = Arrays.copyOf(counts, Math.max(methodId + 1, counts.length * 2));
+        long[] perSlot = counts[methodId];
+        if (perSlot == null) {
+            perSlot = new long[bucketCount];
+            counts[methodId] = perSlot;
+        }
+        perSlot[currentSlot]++;
+        slotTotals[currentSlot]++;
+    }
+
+    // Ring slot for an absolute bucket, recycling the oldest slot when time moves forward
+    private int slotFor(long bucket) {
+        if (latestBucket != Long.MIN_VALUE && bucket <= latestBucket - bucketCount) return -1; // older than window
+        int slot = (int) Math.floorMod(bucket, (long) bucketCount);
+        if (slotBucket[slot] != bucket) {
+            if (slotBucket[slot] > bucket) return -1;
+            slotBucket[slot] = bucket;
+            slotTotals[slot] = 0;
+            for (long[] perSlot : counts) {
+                if (perSlot != null) perSlot[slot] = 0;
+            }
+        }
+        if (bucket > latestBucket) latestBucket = bucket;
+        return slot;
+    }
+
+    // Print the table when the report interval has elapsed (called from the stream thread)
+    void maybeReport() {
+        long now = System.nanoTime();
+        if (now - lastReportNanos < bucketNanos) return;
+        lastReportNanos = now;
+        report();
+    }
+
+    // Print the top-N methods of the current window and evict methods no longer in it
+    void report() {
+        if (latestBucket == Long.MIN_VALUE) return;
+        long oldest = latestBucket - bucketCount + 1;
+        long total = 0;
+        for (int s = 0; s < bucketCount; s++) {
+            if (slotBucket[s] >= oldest) total += slotTotals[s];
+        }
+
+        long[] windowSamples = new long[counts.length];
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] == null) continue;
+            for (int s = 0; s < bucketCount; s++) {
+                if (slotBucket[s] >= oldest) windowSamples[id] += counts[id][s];
+            }
+            if (windowSamples[id] == 0) counts[id] = null;
+        }
+        List<long[]> rows = new ArrayList<>(topN); // {method id, samples}
+        for (int id : TopN.largest(windowSamples, topN)) rows.add(new long[] { id, windowSamples[id] });
+
+        Instant from = Instant.ofEpochSecond(0, oldest * bucketNanos);
+        // The window runs up to the newest sample, not to the end of the bucket being filled
+        Instant to = Instant.ofEpochSecond(0, latestNanos);
+        double windowSec = Duration.between(from, to).toMillis() / 1000.0;
+        double energyJ = (meter == null) ? Double.NaN : meter.energyJ(from, to);
+
+        out.printf("%n[%s .. %s] window %.1fs, samples: %,d%s%n", CLOCK.format(from), CLOCK.format(to), windowSec, total,
+                Double.isNaN(energyJ) ? "" : String.format(", energy: %.3f J", energyJ));
+        if (droppedLate > 0) out.printf("(%,d late samples older than the window were dropped)%n", droppedLate);
+        out.printf("(stack cache hit rate %.1f%% over %,d lookups)%n", stackCache.hitRate() * 100.0, stackCache.lookups());
+        if (Double.isNaN(energyJ)) {
+            out.printf("%-60s %10s %7s%n", "Method", "Samples", "%");
+        } else {
+            out.printf("%-60s %10s %7s %12s %10s%n", "Method", "Samples", "%", "Energy (J)", "Avg W");
+        }
+        for (long[] r : rows) {
+            String name = methods.displayName((int) r[0]);
+            double share = (total == 0) ? 0.0 : r[1] / (double) total;
+            if (Double.isNaN(energyJ)) {
+                out.printf("%-60.60s %,10d %6.1f%%%n", name, r[1], share * 100.0);
+            } else {
+                double methodJ = energyJ * share;
+                out.printf("%-60.60s %,10d %6.1f%% %12.3f %10.3f%n",
+                        name, r[1], share * 100.0, methodJ, methodJ / Math.max(1e-9, windowSec));
+            }
+        }
+    }
+
+    // Attach to an event stream; the stream must be started by the caller
+    void attach(EventStream stream) {
+        stream.onEvent("jdk.ExecutionSample", this::accept);
+        if (meter != null) meter.attach(stream);
+        stream.onFlush(this::maybeReport);
+    }
+
+    // Repository mode: follow the disk repository of a local JVM until the stream is closed
+    static void followRepository(LiveAttribution attribution, Path repository) throws IOException {
+        try (EventStream es = EventStream.openRepository(repository)) {
+            attribution.attach(es);
+            Runtime.getRuntime().addShutdownHook(new Thread(es::close));
+            es.start();
+        }
+    }
+
+    // Attach mode: start a recording with the given .jfc settings on an already-running local
+    // JVM over its local JMX connector and stream it until the duration elapses (if given),
+    // the target exits, or this process is interrupted. The remote recording is always stopped.
+    static void attachRemote(LiveAttribution attribution, String pid, Path settings, Duration duration) throws Exception {
+        Map<String, String> jfc = Configuration.create(settings).getSettings();
+        VirtualMachine vm = VirtualMachine.attach(pid);
+        try {
+            JMXServiceURL url = new JMXServiceURL(vm.startLocalManagementAgent());
+            try (JMXConnector connector = JMXConnectorFactory.connect(url)) {
+                RemoteRecordingStream rs = new RemoteRecordingStream(connector.getMBeanServerConnection());
+                Thread hook = new Thread(rs::close);
+                ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "live-attach-timer");
+                    t.setDaemon(true);
+                    return t;
+                });
+                try {
+                    rs.setSettings(jfc);
+                    attribution.attach(rs);
+                    rs.onError(t -> {
+                        System.err.println("Remote stream failed: " + t.getMessage());
+                        rs.close();
+                    });
+                    Runtime.getRuntime().addShutdownHook(hook);
+                    if (duration != null) timer.schedule(rs::close, duration.toMillis(), TimeUnit.MILLISECONDS);
+                    // start() holds the stream's lock while blocking, which would keep close() from
+                    // ever stopping it, so run the stream asynchronously and wait for termination
+                    rs.startAsync();
+                    rs.awaitTermination();
+                } finally {
+                    timer.shutdownNow();
+                    rs.close();
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(hook);
+                    } catch (IllegalStateException e) {
+                        // Already shutting down; the hook closes the stream
+                    }
+                }
+                attribution.report();
+            }
+        } finally {
+            vm.detach();
+        }
+    }
+}
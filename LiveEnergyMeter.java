@@ -0,0 +1,158 @@
+package demo;
+
+import jdk.jfr.consumer.EventStream;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LiveEnergyMeter - Cumulative energy of one power domain over the recent past, for the
+ * rolling windows of {@link LiveAttribution}.
+ *
+ * Readings come either from {@link EnergySample} events in the followed stream (committed by
+ * a {@link PowerSampler} running in the profiled JVM, so they share its clock) or from a live
+ * {@link PowerSource} polled on a background thread. Readings older than the window are
+ * dropped, so memory is bounded by the readings of one window.
+ */
+final class LiveEnergyMeter implements LiveAttribution.EnergyMeter, AutoCloseable {
+    private final String domain;
+    private final long keepNanos;
+    private long[] nanos = new long[1024];
+    private double[] joules = new double[1024];
+    private int first;   // readings in use are [first, end)
+    private int end;
+    private PowerSource.Readings readings;   // polled source, or null for EnergySample events
+    private Thread poller;
+    private volatile boolean running = true;
+
+    private LiveEnergyMeter(String domain, Duration keep) {
+        this.domain = domain;
+        this.keepNanos = keep.toNanos();
+    }
+
+    // Meter fed by the EnergySample events of the stream it is attached to
+    static LiveEnergyMeter fromEvents(String domain, Duration keep) throws IOException {
+        if (!Arrays.asList(EnergySample.DOMAINS).contains(domain)) {
+            throw new IOException(EnergySample.NAME + " events have no " + domain + " domain");
+        }
+        return new LiveEnergyMeter(domain, keep);
+    }
+
+    // Meter that reads the cumulative energy channel of a domain every interval; closing the
+    // meter stops it and closes the readings
+    static LiveEnergyMeter poll(PowerSource.Readings readings, String domain, Duration interval, Duration keep) throws IOException {
+        List<PowerSource.Channel> channels = readings.channels();
+        int channel = -1;
+        for (int c = 0; c < channels.size() && channel < 0; c++) {
+            if (channels.get(c).cumulative && channels.get(c).domain.equals(domain)) channel = c;
+        }
+        if (channel < 0) {
+            readings.close();
+            throw new IOException("Power source has no cumulative " + domain + " energy channel");
+        }
+        LiveEnergyMeter meter = new LiveEnergyMeter(domain, keep);
+        meter.readings = readings;
+        int c = channel;
+        long intervalNanos = interval.toNanos();
+        meter.poller = new Thread(() -> meter.run(c, intervalNanos), "live-energy-meter");
+        meter.poller.setDaemon(true);
+        meter.poller.start();
+        return meter;
+    }
+
+    String domain() {
+        return domain;
+    }
+
+    @Override
+    public void attach(EventStream stream) {
+        if (readings != null) return;
+        String field = EnergySample.FIELDS[Arrays.asList(EnergySample.DOMAINS).indexOf(domain)];
+        stream.onEvent(EnergySample.NAME, e -> add(PowerIndex.toNanos(e.getStartTime()), e.getDouble(field)));
+    }
+
+    // Energy over the part of [from, to] the readings cover, or NaN without two readings in it
+    @Override
+    public synchronized double energyJ(Instant from, Instant to) {
+        if (end - first < 2) return Double.NaN;
+        long lo = Math.max(PowerIndex.toNanos(from), nanos[first]);
+        long hi = Math.min(PowerIndex.toNanos(to), nanos[end - 1]);
+        if (hi <= lo) return Double.NaN;
+        return at(hi) - at(lo);
+    }
+
+    // Add a reading; readings out of time order or without a value are ignored
+    synchronized void add(long epochNanos, double cumulativeJ) {
+        if (Double.isNaN(cumulativeJ) || end > first && epochNanos <= nanos[end - 1]) return;
+        if (end == nanos.length) {
+            // Reuse the space of dropped readings before growing
+            int n = end - first;
+            if (first > 0 && n < nanos.length / 2) {
+                System.arraycopy(nanos, first, nanos, 0, n);
+                System.arraycopy(joules, first, joules, 0, n);
+            } else {
+                long[] grownNanos = new long[nanos.length * 2];
+                double[] grownJoules = new double[nanos.length * 2];
+                System.arraycopy(nanos, first, grownNanos, 0, n);
+                System.arraycopy(joules, first, grownJoules, 0, n);
+                nanos = grownNanos;
+                joules = grownJoules;
+            }
+            first = 0;
+            end = n;
+        }
+        nanos[end] = epochNanos;
+        joules[end++] = cumulativeJ;
+        // Keep one reading at or before the window start, so its edge can be interpolated
+        long oldest = epochNanos - keepNanos;
+        while (end - first > 2 && nanos[first + 1] <= oldest) first++;
+    }
+
+    // Cumulative joules interpolated at a time inside the readings
+    private double at(long t) {
+        int i = Arrays.binarySearch(nanos, first, end, t);
+        if (i >= 0) return joules[i];
+        int hi = -i - 1, lo = hi - 1;
+        double f = (t - nanos[lo]) / (double) (nanos[hi] - nanos[lo]);
+        return joules[lo] + f * (joules[hi] - joules[lo]);
+    }
+
+    private void run(int channel, long intervalNanos) {
+        long next = System.nanoTime();
+        while (running) {
+            try {
+                if (!readings.next()) return;
+            } catch (Exception e) {
+                System.err.println("Live energy meter stopped: " + e.getMessage());
+                return;
+            }
+            add(readings.timeNanos(), readings.value(channel));
+            // Fixed-rate schedule, so a slow read does not shift later readings
+            next += intervalNanos;
+            long now = System.nanoTime();
+            if (next - now > 0) LockSupport.parkNanos(next - now);
+            else next = now;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (poller == null) return;
+        LockSupport.unpark(poller);
+        try {
+            poller.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            readings.close();
+        } catch (IOException e) {
+            System.err.println("Warning: closing power source: " + e.getMessage());
+        }
+    }
+}
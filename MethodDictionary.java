@@ -0,0 +1,90 @@
+package demo;
+
+import jdk.jfr.consumer.RecordedMethod;
+
+import java.util.*;
+
+/**
+ * MethodDictionary - Interns JFR method identities (class, name, descriptor) to dense int ids.
+ *
+ * Each distinct method is turned into strings once; after that, per-sample code works with
+ * the int id only and names are resolved just for the rows that are printed.
+ */
+final class MethodDictionary {
+    // RecordingFile hands out the same RecordedMethod instance for a method within a chunk,
+    // so identity lookups skip the string work; cleared when it grows past this size
+    private static final int MAX_RECORDED_CACHE = 1 << 16;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final IdentityHashMap<RecordedMethod, Integer> recorded = new IdentityHashMap<>();
+    private String[] classNames = new String[256];
+    private String[] methodNames = new String[256];
+    private String[] descriptors = new String[256];
+    private byte[] frameKinds = new byte[256];  // FrameRules classification + 1, 0 = not yet classified
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    // Dense id for a method, assigning the next id the first time it is seen
+    int intern(String className, String methodName, String descriptor) {
+        String key = className + '.' + methodName + descriptor;
+        Integer id = ids.get(key);
+        if (id != null) return id;
+        if (size == classNames.length) {
+            classNames = Arrays.copyOf(classNames, size * 2);
+            methodNames = Arrays.copyOf(methodNames, size * 2);
+            descriptors = Arrays.copyOf(descriptors, size * 2);
+            frameKinds = Arrays.copyOf(frameKinds, size * 2);
+        }
+        classNames[size] = className;
+        methodNames[size] = methodName;
+        descriptors[size] = descriptor;
+        ids.put(key, size);
+        return size++;
+    }
+
+    // Dense id for a RecordingFile method
+    int idOf(RecordedMethod method) {
+        Integer id = recorded.get(method);
+        if (id != null) return id;
+        if (recorded.size() >= MAX_RECORDED_CACHE) recorded.clear();
+        int newId = intern(method.getType().getName(), method.getName(), method.getDescriptor());
+        recorded.put(method, newId);
+        return newId;
+    }
+
+    String className(int id) {
+        return classNames[id];
+    }
+
+    String methodName(int id) {
+        return methodNames[id];
+    }
+
+    String descriptor(int id) {
+        return descriptors[id];
+    }
+
+    // Frame classification of a method, computed once per id; a dictionary must always be
+    // classified with the same rules
+    byte frameKind(int id, FrameRules rules) {
+        byte kind = frameKinds[id];
+        if (kind == 0) {
+            kind = (byte) (rules.classify(classNames[id], methodNames[id], descriptors[id]) + 1);
+            frameKinds[id] = kind;
+        }
+        return (byte) (kind - 1);
+    }
+
+    // Name used in reports, e.g. demo.Top10Load.work1
+    String displayName(int id) {
+        return classNames[id] + "." + methodNames[id];
+    }
+
+    // Display name including the descriptor, to tell overloads apart
+    String qualifiedName(int id) {
+        return classNames[id] + "." + methodNames[id] + descriptors[id];
+    }
+}
@@ -0,0 +1,230 @@
+package demo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.util.Arrays;
+
+/**
+ * PowerCsvReader - Streaming, memory-mapped reader for Power Gadget style CSV logs.
+ *
+ * The file is mapped in windows and scanned row by row; a row only records where its fields
+ * start and end, and callers parse the columns they need straight from the mapped bytes.
+ * Memory use is independent of the file size. Tokenizing matches the previous
+ * {@code split("\\s*,\\s*")} on each line: fields are trimmed, trailing empty fields are
+ * dropped, and a UTF-8 byte order mark before the header is skipped.
+ */
+final class PowerCsvReader implements Closeable {
+    // Mapped window size; a single row must fit in one window
+    private static final int WINDOW = 64 << 20;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final String[] header;
+    private MappedByteBuffer buf;
+    private long bufOffset;           // file offset of buf position 0
+    private long pos;                 // file offset of the next row
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int columns;
+
+    // Reference date for HH:MM:SS:mmm times, and the epoch millis of the last hour seen
+    private final LocalDate today = LocalDate.now();
+    private final ZoneId zone = ZoneId.systemDefault();
+    private int cachedHour = -1;
+    private long cachedHourMillis;
+
+    private PowerCsvReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        if (fileSize >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF) pos = 3;
+        if (!next()) {
+            channel.close();
+            throw new IOException("Empty CSV");
+        }
+        header = new String[columns];
+        for (int c = 0; c < columns; c++) header[c] = text(c);
+    }
+
+    // Open a CSV and read its header; rows are then read with next()
+    static PowerCsvReader open(Path csvPath) throws IOException {
+        return new PowerCsvReader(csvPath);
+    }
+
+    String[] header() {
+        return header;
+    }
+
+    // Header line as it appears in the file, for error messages
+    String headerLine() {
+        return String.join(",", header);
+    }
+
+    // Advance to the next row; false at end of file
+    boolean next() throws IOException {
+        if (pos >= fileSize) return false;
+        if (buf == null || pos < bufOffset || pos >= bufOffset + buf.limit()) remap(pos);
+        while (true) {
+            int i = (int) (pos - bufOffset);
+            int limit = buf.limit();
+            columns = 0;
+            int fieldStart = i;
+            int lastNonEmpty = 0;
+            boolean atEof = bufOffset + limit >= fileSize;
+            while (i < limit && buf.get(i) != '\n') {
+                if (buf.get(i) == ',') {
+                    addField(fieldStart, i);
+                    if (starts[columns - 1] < ends[columns - 1]) lastNonEmpty = columns;
+                    fieldStart = i + 1;
+                }
+                i++;
+            }
+            if (i == limit && !atEof) {
+                // Row continues past the window: map a new window starting at the row
+                if (bufOffset == pos) throw new IOException("CSV row longer than " + WINDOW + " bytes at offset " + pos + " in " + path);
+                remap(pos);
+                continue;
+            }
+            addField(fieldStart, i);
+            if (starts[columns - 1] < ends[columns - 1]) lastNonEmpty = columns;
+            // split() drops trailing empty fields, but keeps a single empty field for an empty line
+            columns = Math.max(1, lastNonEmpty);
+            pos = bufOffset + Math.min(i + 1, limit);
+            return true;
+        }
+    }
+
+    // Number of fields in the current row
+    int columns() {
+        return columns;
+    }
+
+    // Numeric value of a field, or NaN if it is missing, empty or not a number
+    double number(int col) {
+        if (col < 0 || col >= columns) return Double.NaN;
+        int i = starts[col], end = ends[col];
+        if (i == end) return Double.NaN;
+        boolean negative = false;
+        byte b = buf.get(i);
+        if (b == '-' || b == '+') {
+            negative = (b == '-');
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, fraction = 0;
+        boolean dot = false, any = false;
+        for (; i < end; i++) {
+            b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa == 0 && b == '0') {
+                    if (dot) fraction++;
+                    continue;
+                }
+                if (++digits > 15) return slowNumber(col);
+                mantissa = mantissa * 10 + (b - '0');
+                if (dot) fraction++;
+            } else if (b == '.' && !dot) {
+                dot = true;
+            } else {
+                return slowNumber(col);
+            }
+        }
+        if (!any) return Double.NaN;
+        if (fraction >= POW10.length) return slowNumber(col);
+        // Exact for up to 15 digits and a power-of-ten divisor up to 1e22, as Double.parseDouble
+        double v = mantissa / POW10[fraction];
+        return negative ? -v : v;
+    }
+
+    // Text of a field, or null if the row has no such field
+    String text(int col) {
+        if (col < 0 || col >= columns) return null;
+        byte[] bytes = new byte[ends[col] - starts[col]];
+        buf.get(starts[col], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Power Gadget "HH:MM:SS:mmm" System Time on today's date in the default zone, as epoch
+    // millis, or Long.MIN_VALUE if the field is in another format
+    long clockMillis(int col) {
+        if (col < 0 || col >= columns) return Long.MIN_VALUE;
+        int i = starts[col], end = ends[col];
+        int hour = 0, minute = 0, second = 0, millis = 0;
+        int part = 0, partDigits = 0;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                if (++partDigits > 4) return Long.MIN_VALUE;
+                int d = b - '0';
+                switch (part) {
+                    case 0: hour = hour * 10 + d; break;
+                    case 1: minute = minute * 10 + d; break;
+                    case 2: second = second * 10 + d; break;
+                    default: millis = millis * 10 + d; break;
+                }
+            } else if (b == ':' && partDigits > 0 && part < 3) {
+                part++;
+                partDigits = 0;
+            } else {
+                return Long.MIN_VALUE;
+            }
+        }
+        if (part != 3 || partDigits == 0) return Long.MIN_VALUE;
+        if (hour > 23 || minute > 59 || second > 59 || millis > 999) return Long.MIN_VALUE;
+        if (hour != cachedHour) {
+            cachedHourMillis = LocalDateTime.of(today, LocalTime.of(hour, 0)).atZone(zone).toInstant().toEpochMilli();
+            cachedHour = hour;
+        }
+        return cachedHourMillis + minute * 60_000L + second * 1000L + millis;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private double slowNumber(int col) {
+        try {
+            return Double.parseDouble(text(col));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Record a field with surrounding whitespace (including a trailing CR) trimmed
+    private void addField(int from, int to) {
+        while (from < to && isSpace(buf.get(from))) from++;
+        while (to > from && isSpace(buf.get(to - 1))) to--;
+        if (columns == starts.length) {
+            starts = Arrays.copyOf(starts, columns * 2);
+            ends = Arrays.copyOf(ends, columns * 2);
+        }
+        starts[columns] = from;
+        ends[columns] = to;
+        columns++;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private void remap(long offset) throws IOException {
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW, fileSize - offset));
+        bufOffset = offset;
+    }
+
+    private byte byteAt(long offset) throws IOException {
+        if (buf == null) remap(0);
+        return buf.get((int) offset);
+    }
+}
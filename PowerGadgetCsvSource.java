@@ -0,0 +1,233 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * PowerGadgetCsvSource - Intel Power Gadget style CSV logs, also written by --record-power.
+ *
+ * Package, IA, uncore/GT, DRAM and per-core energy (J) and power (W) columns are recognized
+ * from the header; the first matching column of each kind wins. Rows are streamed through
+ * {@link PowerCsvReader}, and System Time is read as Power Gadget's "HH:MM:SS:mmm" on
+ * today's date or as a full "yyyy-MM-dd HH:mm:ss[.SSSSSS]" timestamp.
+ */
+public final class PowerGadgetCsvSource implements PowerSource {
+    // Regular expressions for finding columns in CSV
+    static final Pattern PATTERN_ENERGY = Pattern.compile("(?i)(package|processor|pkg|ia).*energy.*(j|joule)");
+    static final Pattern PATTERN_ELAPSED = Pattern.compile("(?i)elapsed\\s*time");
+    static final Pattern PATTERN_POWER = Pattern.compile("(?i)(package|processor|pkg|ia).*power.*(w|watt)");
+    static final Pattern PATTERN_SYSTEM_TIME = Pattern.compile("(?i)system\\s*time");
+    // Matched against the normalized (lower-case, single-spaced) header
+    private static final Pattern PATTERN_CORE = Pattern.compile("(?:core|processor)\\s*(\\d+)\\s*(?:energy|power)");
+    private static final Pattern PATTERN_DRAM = Pattern.compile("dram.*(?:energy|power)");
+    private static final Pattern PATTERN_IA = Pattern.compile("\\bia\\s*(?:energy|power)");
+    private static final Pattern PATTERN_UNCORE = Pattern.compile("\\b(?:uncore|gt)\\s*(?:energy|power)");
+    private static final Pattern PATTERN_JOULES = Pattern.compile("energy.*(j|joule)");
+    private static final Pattern PATTERN_WATTS = Pattern.compile("power.*(w|watt)");
+
+    private static final DateTimeFormatter TIME_MICROS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+    private static final DateTimeFormatter TIME_SECONDS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Override
+    public String name() {
+        return "csv";
+    }
+
+    @Override
+    public String description() {
+        return "Intel Power Gadget style CSV log (<power.csv>)";
+    }
+
+    @Override
+    public boolean accepts(String location) {
+        if (location == null) return false;
+        if (location.toLowerCase(Locale.ROOT).endsWith(".csv")) return true;
+        // Otherwise a file with a comma-separated first line
+        String first = TurbostatPowerSource.firstLine(location);
+        return first != null && first.indexOf(',') >= 0;
+    }
+
+    @Override
+    public Readings open(String location) throws IOException {
+        if (location == null) throw new IOException("The csv power source needs a CSV file");
+        PowerCsvReader csv = PowerCsvReader.open(Paths.get(location));
+        try {
+            return new CsvReadings(csv);
+        } catch (IOException | RuntimeException e) {
+            csv.close();
+            throw e;
+        }
+    }
+
+    // CSV header of a cumulative energy column that this source recognizes as the given domain
+    static String energyColumn(String domain) {
+        switch (domain) {
+            case PowerTimeline.PACKAGE: return "Cumulative Package Energy (Joules)";
+            case PowerTimeline.IA: return "Cumulative IA Energy (Joules)";
+            case PowerTimeline.UNCORE: return "Cumulative Uncore Energy (Joules)";
+            case PowerTimeline.DRAM: return "Cumulative DRAM Energy (Joules)";
+            default: return "Cumulative " + domain.substring(0, 1).toUpperCase(Locale.ROOT) + domain.substring(1) + " Energy (Joules)";
+        }
+    }
+
+    // System Time column value in a format this source parses with the date included
+    static String formatSystemTime(Instant t) {
+        return TIME_MICROS.format(LocalDateTime.ofInstant(t, ZoneId.systemDefault()));
+    }
+
+    private static final class CsvReadings implements Readings {
+        private final PowerCsvReader csv;
+        private final List<Channel> channels = new ArrayList<>();
+        private int[] columns = new int[8];   // CSV column per channel
+        private final int idxSysTime;
+        private final int idxElapsed;
+
+        CsvReadings(PowerCsvReader csv) throws IOException {
+            this.csv = csv;
+            String[] cols = csv.header();
+            recognizeChannels(cols);
+            if (channels.isEmpty()) throw new IOException("Energy/Power columns not found in header:\n" + csv.headerLine());
+            idxSysTime = findCol(cols, PATTERN_SYSTEM_TIME);
+            idxElapsed = findCol(cols, PATTERN_ELAPSED);
+        }
+
+        @Override
+        public List<Channel> channels() {
+            return channels;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            return csv.next();
+        }
+
+        @Override
+        public long timeNanos() {
+            Instant t = (idxSysTime >= 0 && idxSysTime < csv.columns()) ? parseSystemTime(csv, idxSysTime) : null;
+            return (t == null) ? Long.MIN_VALUE : PowerIndex.toNanos(t);
+        }
+
+        @Override
+        public double elapsedSec() {
+            return csv.number(idxElapsed);
+        }
+
+        @Override
+        public double value(int channel) {
+            return csv.number(columns[channel]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            csv.close();
+        }
+
+        // One energy and one power channel per domain; logs with only IA columns used them as
+        // the package total
+        private void recognizeChannels(String[] cols) {
+            Map<String, int[]> byDomain = new LinkedHashMap<>();   // energy column, power column
+            for (int i = 0; i < cols.length; i++) {
+                String normalized = cols[i]
+                        .toLowerCase(Locale.ROOT)
+                        .replace('_', ' ')
+                        .replaceAll("\\s+", " ")
+                        .trim();
+                boolean energy = PATTERN_JOULES.matcher(normalized).find();
+                boolean power = !energy && PATTERN_WATTS.matcher(normalized).find();
+                if (!energy && !power) continue;
+
+                String domain;
+                Matcher core = PATTERN_CORE.matcher(normalized);
+                if (core.find()) {
+                    domain = PowerTimeline.core(Integer.parseInt(core.group(1)));
+                } else if (PATTERN_DRAM.matcher(normalized).find()) {
+                    domain = PowerTimeline.DRAM;
+                } else if (PATTERN_UNCORE.matcher(normalized).find()) {
+                    domain = PowerTimeline.UNCORE;
+                } else if (PATTERN_IA.matcher(normalized).find()) {
+                    domain = PowerTimeline.IA;
+                } else if ((energy ? PATTERN_ENERGY : PATTERN_POWER).matcher(cols[i]).find()) {
+                    domain = PowerTimeline.PACKAGE;
+                } else {
+                    continue;
+                }
+                int[] idx = byDomain.computeIfAbsent(domain, k -> new int[] { -1, -1 });
+                if (energy && idx[0] < 0) idx[0] = i;
+                else if (power && idx[1] < 0) idx[1] = i;
+            }
+            if (!byDomain.containsKey(PowerTimeline.PACKAGE) && byDomain.containsKey(PowerTimeline.IA)) {
+                byDomain.put(PowerTimeline.PACKAGE, byDomain.get(PowerTimeline.IA));
+            }
+            for (Map.Entry<String, int[]> e : byDomain.entrySet()) {
+                if (e.getValue()[0] >= 0) add(new Channel(e.getKey(), true, cols[e.getValue()[0]]), e.getValue()[0]);
+                if (e.getValue()[1] >= 0) add(new Channel(e.getKey(), false, cols[e.getValue()[1]]), e.getValue()[1]);
+            }
+        }
+
+        private void add(Channel channel, int column) {
+            if (channels.size() == columns.length) columns = Arrays.copyOf(columns, columns.length * 2);
+            columns[channels.size()] = column;
+            channels.add(channel);
+        }
+    }
+
+    // Find column index that matches a pattern
+    private static int findCol(String[] header, Pattern p) {
+        for (int i = 0; i < header.length; i++) {
+            if (p.matcher(header[i]).find()) return i;
+        }
+        return -1;
+    }
+
+    // System Time of the current CSV row; the Power Gadget clock format is parsed from the bytes
+    private static Instant parseSystemTime(PowerCsvReader csv, int col) {
+        long millis = csv.clockMillis(col);
+        return (millis != Long.MIN_VALUE) ? Instant.ofEpochMilli(millis) : parseSystemTime(csv.text(col));
+    }
+
+    // Parse Intel Power Gadget CSV time format (System Time)
+    static Instant parseSystemTime(String s) {
+        if (s == null || s.trim().isEmpty()) return null;
+
+        // Handle Intel Power Gadget's special format "HH:MM:SS:mmm"
+        try {
+            String[] parts = s.split(":");
+            if (parts.length == 4) {
+                int hours = Integer.parseInt(parts[0]);
+                int minutes = Integer.parseInt(parts[1]);
+                int seconds = Integer.parseInt(parts[2]);
+                int millis = Integer.parseInt(parts[3]);
+
+                return LocalTime.of(hours, minutes, seconds, millis * 1_000_000)
+                        .atDate(LocalDate.now())
+                        .atZone(ZoneId.systemDefault())
+                        .toInstant();
+            }
+        } catch (Exception e) {
+            // Fall through to other formats
+        }
+
+        try {
+            // Try format: "2023-03-15 10:15:30.123456"
+            return LocalDateTime.parse(s, TIME_MICROS)
+                    .atZone(ZoneId.systemDefault())
+                    .toInstant();
+        } catch (DateTimeParseException e1) {
+            try {
+                // Try alternate format without microseconds: "2023-03-15 10:15:30"
+                return LocalDateTime.parse(s, TIME_SECONDS)
+                        .atZone(ZoneId.systemDefault())
+                        .toInstant();
+            } catch (DateTimeParseException e2) {
+                System.err.println("Invalid time format: " + s);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package demo;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * PowerIndex - Cumulative energy of one power domain over time, for O(log n) interval queries.
+ *
+ * Holds strictly increasing epoch-nanosecond timestamps and the joules consumed from the
+ * first timestamp up to each of them. Between two timestamps energy accrues linearly (an
+ * energy counter's increase is spread evenly over its interval, and a power reading holds
+ * until the next one), so the energy of any [from, to] is the difference of two
+ * interpolated prefix sums found by binary search.
+ */
+final class PowerIndex {
+    private final long[] nanos;
+    private final double[] cumulativeJ;
+    private final int size;
+
+    private PowerIndex(long[] nanos, double[] cumulativeJ, int size) {
+        this.nanos = nanos;
+        this.cumulativeJ = cumulativeJ;
+        this.size = size;
+    }
+
+    // Build from per-row epoch nanos (Long.MIN_VALUE = missing) and either cumulative energy
+    // counter readings or power readings (NaN = missing)
+    static PowerIndex build(long[] timeNanos, double[] values, boolean cumulative, int rows) {
+        long[] nanos = new long[Math.max(1, rows)];
+        double[] cum = new double[nanos.length];
+        int n = 0;
+        double prev = Double.NaN;
+        for (int r = 0; r < rows; r++) {
+            long ns = timeNanos[r];
+            double v = values[r];
+            if (ns == Long.MIN_VALUE || Double.isNaN(v)) continue;
+            if (n == 0) {
+                nanos[0] = ns;
+                n = 1;
+            } else if (ns > nanos[n - 1]) {
+                // A counter that went backwards (reset or wrap) contributes nothing to its interval
+                double joules = cumulative
+                        ? Math.max(0, v - prev)
+                        : Math.max(0, prev) * ((ns - nanos[n - 1]) / 1e9);
+                nanos[n] = ns;
+                cum[n] = cum[n - 1] + joules;
+                n++;
+            }
+            prev = v;
+        }
+        return new PowerIndex(Arrays.copyOf(nanos, n), Arrays.copyOf(cum, n), n);
+    }
+
+    // The same readings with each interval's energy multiplied by the target's CPU share of it
+    PowerIndex scaled(CpuShare share) {
+        double[] cum = new double[size];
+        for (int i = 1; i < size; i++) {
+            cum[i] = cum[i - 1] + (cumulativeJ[i] - cumulativeJ[i - 1]) * share.share(nanos[i - 1], nanos[i]);
+        }
+        return new PowerIndex(nanos, cum, size);
+    }
+
+    // The energy of each interval above a constant idle power (dynamic), or up to it (static);
+    // an interval that drew less than the baseline is all static
+    PowerIndex aboveBaseline(double watts) {
+        return split(watts, true);
+    }
+
+    PowerIndex upToBaseline(double watts) {
+        return split(watts, false);
+    }
+
+    private PowerIndex split(double watts, boolean above) {
+        double[] cum = new double[size];
+        for (int i = 1; i < size; i++) {
+            double joules = cumulativeJ[i] - cumulativeJ[i - 1];
+            double idleJ = Math.min(joules, watts * ((nanos[i] - nanos[i - 1]) / 1e9));
+            cum[i] = cum[i - 1] + (above ? joules - idleJ : idleJ);
+        }
+        return new PowerIndex(nanos, cum, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Typical time between readings, or 0 without an interval
+    long medianIntervalNanos() {
+        return medianIntervalNanos(nanos, size);
+    }
+
+    static long medianIntervalNanos(long[] nanos, int size) {
+        if (size < 2) return 0;
+        long[] gaps = new long[size - 1];
+        for (int i = 1; i < size; i++) gaps[i - 1] = nanos[i] - nanos[i - 1];
+        Arrays.sort(gaps);
+        return gaps[gaps.length / 2];
+    }
+
+    // True if at least one interval is covered
+    boolean isEmpty() {
+        return size < 2;
+    }
+
+    long firstNanos() {
+        return nanos[0];
+    }
+
+    long lastNanos() {
+        return nanos[size - 1];
+    }
+
+    // Timestamp and cumulative joules of the i-th reading
+    long nanosAt(int i) {
+        return nanos[i];
+    }
+
+    double cumulativeJAt(int i) {
+        return cumulativeJ[i];
+    }
+
+    // Joules consumed between the first timestamp and t, clamped to the covered range
+    double cumulativeJ(long t) {
+        if (size == 0 || t <= nanos[0]) return 0.0;
+        if (t >= nanos[size - 1]) return cumulativeJ[size - 1];
+        int i = Arrays.binarySearch(nanos, 0, size, t);
+        if (i >= 0) return cumulativeJ[i];
+        int hi = -i - 1;   // first timestamp after t
+        int lo = hi - 1;
+        double fraction = (t - nanos[lo]) / (double) (nanos[hi] - nanos[lo]);
+        return cumulativeJ[lo] + (cumulativeJ[hi] - cumulativeJ[lo]) * fraction;
+    }
+
+    // Energy over [fromNanos, toNanos]
+    double energyJ(long fromNanos, long toNanos) {
+        if (toNanos <= fromNanos) return 0.0;
+        return cumulativeJ(toNanos) - cumulativeJ(fromNanos);
+    }
+
+    double energyJ(Instant from, Instant to) {
+        return energyJ(toNanos(from), toNanos(to));
+    }
+
+    static long toNanos(Instant t) {
+        return t.getEpochSecond() * 1_000_000_000L + t.getNano();
+    }
+}
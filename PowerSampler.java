@@ -0,0 +1,134 @@
+package demo;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PowerSampler - Background thread that reads a live {@link PowerSource} (RAPL by default)
+ * at a fixed rate and commits {@link EnergySample} events into the running JFR recording(s).
+ *
+ * Run it in the profiled JVM so energy readings and ExecutionSample events are stamped by
+ * the same clock, and the analysis reads both from the one .jfr file:
+ * <pre>
+ *   java -XX:StartFlightRecording=filename=profile.jfr,settings=high-freq-jfr.jfc \
+ *        -cp out demo.PowerSampler --interval-ms 1 demo.Top10Load
+ * </pre>
+ */
+public final class PowerSampler implements AutoCloseable {
+    private final PowerSource.Readings readings;
+    private final long intervalNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private PowerSampler(PowerSource.Readings readings, Duration interval) {
+        this.readings = readings;
+        this.intervalNanos = interval.toNanos();
+        this.thread = new Thread(this::run, "power-sampler");
+        this.thread.setDaemon(true);
+    }
+
+    // Start sampling the cumulative energy channels of live readings; closing the sampler
+    // stops it and closes the readings
+    static PowerSampler start(PowerSource.Readings readings, Duration interval) {
+        if (interval.toNanos() < 1_000_000) throw new IllegalArgumentException("Sampling interval must be at least 1 ms: " + interval);
+        PowerSampler sampler = new PowerSampler(readings, interval);
+        sampler.thread.start();
+        return sampler;
+    }
+
+    private void run() {
+        // EnergySample field of each channel, or -1 for power channels and other domains
+        List<PowerSource.Channel> channels = readings.channels();
+        int[] field = new int[channels.size()];
+        for (int c = 0; c < field.length; c++) {
+            PowerSource.Channel channel = channels.get(c);
+            field[c] = channel.cumulative ? Arrays.asList(EnergySample.DOMAINS).indexOf(channel.domain) : -1;
+        }
+        EnergySample probe = new EnergySample();
+        long next = System.nanoTime();
+        while (running) {
+            // Skip reading the meter while no recording has the event enabled
+            if (probe.isEnabled()) {
+                try {
+                    if (!readings.next()) return;
+                } catch (Exception e) {
+                    System.err.println("Power sampler stopped: " + e.getMessage());
+                    return;
+                }
+                EnergySample event = new EnergySample();
+                for (int c = 0; c < field.length; c++) {
+                    if (field[c] >= 0) event.set(field[c], readings.value(c));
+                }
+                event.commit();
+            }
+            // Fixed-rate schedule, so a slow read does not shift later samples
+            next += intervalNanos;
+            long now = System.nanoTime();
+            if (next - now > 0) LockSupport.parkNanos(next - now);
+            else next = now;
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            readings.close();
+        } catch (IOException e) {
+            System.err.println("Warning: closing power source: " + e.getMessage());
+        }
+    }
+
+    // Launcher: sample power for the lifetime of another program's main method
+    public static void main(String[] args) throws Throwable {
+        int intervalMs = 10;
+        String sourceName = "rapl";
+        String location = null;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i++) {
+            if (args[i].equals("--interval-ms") && i+1 < args.length) {
+                intervalMs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--power-source") && i+1 < args.length) {
+                sourceName = args[++i];
+            } else if ((args[i].equals("--power-location") || args[i].equals("--powercap-root")) && i+1 < args.length) {
+                location = args[++i];
+            } else {
+                System.err.println("Warning: Unknown parameter: " + args[i]);
+            }
+        }
+        if (i >= args.length) {
+            System.err.println("Usage: java -XX:StartFlightRecording=... demo.PowerSampler [--interval-ms <ms>] [--power-source <name>] [--power-location <spec>] <main-class> [args...]");
+            System.err.println("  --interval-ms <ms>       Power sampling interval, at least 1 (default: 10)");
+            System.err.println("  --power-source <name>    Live power source (default: rapl)");
+            System.err.println("  --power-location <spec>  Source location, e.g. the powercap sysfs directory (alias: --powercap-root)");
+            for (PowerSource s : PowerSource.available()) {
+                if (s.isLive()) System.err.printf("    %-10s %s%n", s.name(), s.description());
+            }
+            return;
+        }
+        
+        Method main = Class.forName(args[i]).getMethod("main", String[].class);
+        String[] mainArgs = Arrays.copyOfRange(args, i + 1, args.length);
+        PowerSource source = PowerSource.named(sourceName);
+        if (!source.isLive()) throw new IOException("Power source '" + sourceName + "' replays a log and cannot be sampled live");
+        PowerSampler sampler = start(source.open(location), Duration.ofMillis(intervalMs));
+        try {
+            main.invoke(null, (Object) mainArgs);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            sampler.close();
+        }
+    }
+}
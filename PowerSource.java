@@ -0,0 +1,97 @@
+package demo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * PowerSource - A power meter the attribution engine can read, discovered with
+ * {@link ServiceLoader} from {@code META-INF/services/demo.PowerSource}.
+ *
+ * A source opens a location (a log file, a sysfs directory or a source-specific spec) as a
+ * stream of {@link Readings}: one instant per row, with a value for each channel. A channel
+ * is the cumulative joules or the watts of one domain (package, ia, uncore, dram, core n).
+ * File sources replay a log; live sources read the meter now on every {@code next()}, and
+ * are used by PowerSampler and --record-power rather than for analysis. The built-in
+ * sources are always available, even when the service file is not on the class path.
+ */
+public interface PowerSource {
+    // Name used with --power-source, e.g. "csv"
+    String name();
+
+    // One line for the usage text
+    String description();
+
+    // True for meters read in real time rather than replayed from a log
+    default boolean isLive() {
+        return false;
+    }
+
+    // True if this source recognizes the location, to pick a source when none is named
+    boolean accepts(String location);
+
+    // Open the location; null opens the source's default location, if it has one
+    Readings open(String location) throws IOException;
+
+    // Cumulative joules or watts of one domain, labelled as in the source's own output
+    final class Channel {
+        final String domain;
+        final boolean cumulative;   // joules since an arbitrary origin, otherwise watts
+        final String label;
+
+        Channel(String domain, boolean cumulative, String label) {
+            this.domain = domain;
+            this.cumulative = cumulative;
+            this.label = label;
+        }
+    }
+
+    // Stream of readings, one instant at a time
+    interface Readings extends Closeable {
+        List<Channel> channels();
+
+        // Advance to the next reading; false at the end of a log
+        boolean next() throws IOException;
+
+        // Time of the current reading in epoch nanos, or Long.MIN_VALUE if unknown
+        long timeNanos();
+
+        // Seconds since the first reading, or NaN if unknown
+        double elapsedSec();
+
+        // Value of a channel in the current reading, or NaN if missing
+        double value(int channel);
+    }
+
+    // Sources registered with ServiceLoader, then any built-in source not among them
+    static List<PowerSource> available() {
+        Map<String, PowerSource> byName = new LinkedHashMap<>();
+        for (PowerSource s : ServiceLoader.load(PowerSource.class)) byName.putIfAbsent(s.name(), s);
+        for (PowerSource s : List.of(new PowerGadgetCsvSource(), new TurbostatPowerSource(),
+                new RaplPowerSource(), new SyntheticPowerSource())) {
+            byName.putIfAbsent(s.name(), s);
+        }
+        return new ArrayList<>(byName.values());
+    }
+
+    static PowerSource named(String name) throws IOException {
+        for (PowerSource s : available()) {
+            if (s.name().equals(name)) return s;
+        }
+        throw new IOException("Unknown power source '" + name + "'; available: " + names());
+    }
+
+    // The first non-live source that recognizes a log location
+    static PowerSource forLocation(String location) throws IOException {
+        for (PowerSource s : available()) {
+            if (!s.isLive() && s.accepts(location)) return s;
+        }
+        throw new IOException("No power source recognizes " + location + "; use --power-source <" + names() + ">");
+    }
+
+    private static String names() {
+        StringJoiner names = new StringJoiner("|");
+        for (PowerSource s : available()) names.add(s.name());
+        return names.toString();
+    }
+}
@@ -0,0 +1,414 @@
+package demo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * PowerTimeline - Every power domain of a {@link PowerSource}, loaded in a single pass into
+ * primitive columns.
+ *
+ * The cumulative energy and/or power channel of each domain (package, IA, uncore, DRAM,
+ * cores) is kept side by side with the reading timestamps, so any domain can be integrated
+ * over the JFR window without re-reading the source. A timeline can also be filled in
+ * memory from {@link EnergySample} events, one event per row.
+ */
+final class PowerTimeline {
+    static final String PACKAGE = "package";
+    static final String IA = "ia";
+    static final String UNCORE = "uncore";
+    static final String DRAM = "dram";
+
+    // One measured domain: a cumulative energy channel, a power channel, or both
+    static final class Domain {
+        final String name;
+        final int order;
+        String energyColumn;   // channel label, or null
+        String powerColumn;
+        private int energyIdx = -1;
+        private int powerIdx = -1;
+        private double[] energyJ;   // per row, NaN when missing
+        private double[] powerW;
+        private PowerIndex index;   // built on first aligned query
+        private PowerIndex staticIndex;   // energy up to the idle baseline, null without one
+
+        private Domain(String name) {
+            this.name = name;
+            this.order = orderOf(name);
+        }
+    }
+
+    private final String[] header;
+    private final List<Domain> domains;
+    private CpuShare share;   // scales interval energy to one target's CPU share, null = whole host
+    private IdleBaseline baseline;   // idle power left out of the attributed energy, null = none
+    private long[] timeNanos = new long[1024];   // System Time per row in epoch nanos, or Long.MIN_VALUE
+    private double[] elapsedSec = new double[1024];
+    private int rows;
+    private String[] mappedNames;   // names array of the last addEnergyReadings call
+    private Domain[] mappedDomains;   // its domains by position, null until a reading arrives
+
+    // Empty timeline for cumulative energy readings added with addEnergyReadings
+    PowerTimeline() {
+        this(new String[0], new ArrayList<>());
+    }
+
+    private PowerTimeline(String[] header, List<Domain> domains) {
+        this.header = header;
+        this.domains = domains;
+        for (Domain d : domains) {
+            if (d.energyIdx >= 0) d.energyJ = new double[timeNanos.length];
+            if (d.powerIdx >= 0) d.powerW = new double[timeNanos.length];
+        }
+    }
+
+    // Read every reading of a file source in one pass
+    static PowerTimeline load(PowerSource source, String location) throws IOException {
+        if (source.isLive()) {
+            throw new IOException("Power source '" + source.name() + "' is read live; record it with PowerSampler or --record-power");
+        }
+        try (PowerSource.Readings readings = source.open(location)) {
+            List<PowerSource.Channel> channels = readings.channels();
+            String[] labels = new String[channels.size()];
+            for (int i = 0; i < labels.length; i++) labels[i] = channels.get(i).label;
+            PowerTimeline timeline = new PowerTimeline(labels, domainsOf(channels));
+            while (readings.next()) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Power loading cancelled");
+                int r = timeline.addRow();
+                timeline.timeNanos[r] = readings.timeNanos();
+                timeline.elapsedSec[r] = readings.elapsedSec();
+                for (Domain d : timeline.domains) {
+                    if (d.energyJ != null) d.energyJ[r] = readings.value(d.energyIdx);
+                    if (d.powerW != null) d.powerW[r] = readings.value(d.powerIdx);
+                }
+            }
+            return timeline;
+        }
+    }
+
+    // Channel labels, for error messages
+    String headerLine() {
+        return String.join(",", header);
+    }
+
+    // Append cumulative energy readings taken at one instant, e.g. from an EnergySample event;
+    // NaN readings are missing domains. Call sortByTime() once all readings are added.
+    void addEnergyReadings(long epochNanos, String[] domainNames, double[] cumulativeJ) {
+        // The same names array comes with every reading, so the columns are resolved once
+        if (domainNames != mappedNames) {
+            mappedNames = domainNames;
+            mappedDomains = new Domain[domainNames.length];
+            for (int i = 0; i < domainNames.length; i++) mappedDomains[i] = domain(domainNames[i]);
+        }
+        for (int i = 0; i < domainNames.length; i++) {
+            if (mappedDomains[i] == null && !Double.isNaN(cumulativeJ[i])) mappedDomains[i] = addEnergyDomain(domainNames[i]);
+        }
+        int r = addRow();
+        timeNanos[r] = epochNanos;
+        elapsedSec[r] = (epochNanos - timeNanos[0]) / 1e9;
+        for (Domain d : domains) {
+            d.energyJ[r] = Double.NaN;
+            d.index = null;
+        }
+        for (int i = 0; i < domainNames.length; i++) {
+            if (mappedDomains[i] != null) mappedDomains[i].energyJ[r] = cumulativeJ[i];
+        }
+    }
+
+    // Append the rows of a later in-memory timeline, e.g. of the next JFR chunk
+    void append(PowerTimeline other) {
+        if (other.rows == 0) return;
+        Domain[] target = new Domain[other.domains.size()];
+        for (int i = 0; i < target.length; i++) {
+            Domain src = other.domains.get(i);
+            target[i] = domain(src.name);
+            if (target[i] == null) target[i] = addEnergyDomain(src.name);
+        }
+        int from = rows, n = rows + other.rows;
+        if (n > timeNanos.length) {
+            int capacity = Math.max(n, timeNanos.length * 2);
+            timeNanos = Arrays.copyOf(timeNanos, capacity);
+            elapsedSec = Arrays.copyOf(elapsedSec, capacity);
+            for (Domain d : domains) {
+                d.energyJ = Arrays.copyOf(d.energyJ, capacity);
+                if (d.powerW != null) d.powerW = Arrays.copyOf(d.powerW, capacity);
+            }
+        }
+        System.arraycopy(other.timeNanos, 0, timeNanos, from, other.rows);
+        for (int r = from; r < n; r++) elapsedSec[r] = (timeNanos[r] - timeNanos[0]) / 1e9;
+        for (Domain d : domains) {
+            Arrays.fill(d.energyJ, from, n, Double.NaN);
+            d.index = null;
+        }
+        for (int i = 0; i < target.length; i++) {
+            System.arraycopy(other.domains.get(i).energyJ, 0, target[i].energyJ, from, other.rows);
+        }
+        rows = n;
+    }
+
+    // New energy domain for readings added in memory, missing (NaN) in the rows so far
+    private Domain addEnergyDomain(String name) {
+        Domain d = new Domain(name);
+        d.energyColumn = EnergySample.NAME + " " + name;
+        d.energyJ = new double[timeNanos.length];
+        Arrays.fill(d.energyJ, 0, rows, Double.NaN);
+        domains.add(d);
+        domains.sort(Comparator.comparingInt(x -> x.order));
+        return d;
+    }
+
+    // Order the rows by time: JFR writes each thread's events in buffer flushes, not in time
+    // order, and the chunks of a parallel decode are appended as they complete
+    void sortByTime() {
+        boolean sorted = true;
+        for (int r = 1; r < rows && sorted; r++) sorted = timeNanos[r - 1] <= timeNanos[r];
+        if (sorted) return;
+        long[] nanos = Arrays.copyOf(timeNanos, rows), tmpNanos = new long[rows];
+        int[] order = new int[rows], tmpOrder = new int[rows];
+        for (int r = 0; r < rows; r++) order[r] = r;
+        // Bottom-up merge sort of the row numbers; the rows of one flush or chunk are already
+        // in order, so runs that need no merge are copied as they are
+        for (int width = 1; width < rows; width *= 2) {
+            for (int lo = 0; lo < rows; lo += 2 * width) {
+                int mid = Math.min(lo + width, rows), hi = Math.min(lo + 2 * width, rows);
+                if (mid == hi || nanos[mid - 1] <= nanos[mid]) {
+                    System.arraycopy(nanos, lo, tmpNanos, lo, hi - lo);
+                    System.arraycopy(order, lo, tmpOrder, lo, hi - lo);
+                    continue;
+                }
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (nanos[j] < nanos[i]) {
+                        tmpNanos[k] = nanos[j];
+                        tmpOrder[k++] = order[j++];
+                    } else {
+                        tmpNanos[k] = nanos[i];
+                        tmpOrder[k++] = order[i++];
+                    }
+                }
+                while (i < mid) {
+                    tmpNanos[k] = nanos[i];
+                    tmpOrder[k++] = order[i++];
+                }
+                while (j < hi) {
+                    tmpNanos[k] = nanos[j];
+                    tmpOrder[k++] = order[j++];
+                }
+            }
+            long[] t = nanos;
+            nanos = tmpNanos;
+            tmpNanos = t;
+            int[] o = order;
+            order = tmpOrder;
+            tmpOrder = o;
+        }
+        System.arraycopy(nanos, 0, timeNanos, 0, rows);
+        for (int r = 0; r < rows; r++) elapsedSec[r] = (timeNanos[r] - timeNanos[0]) / 1e9;
+        double[] scratch = new double[rows];
+        for (Domain d : domains) {
+            if (d.energyJ != null) permute(d.energyJ, order, scratch);
+            if (d.powerW != null) permute(d.powerW, order, scratch);
+            d.index = null;
+        }
+    }
+
+    // Keep only the readings inside [fromNanos, toNanos], plus the last one before and the first
+    // one after it so the range's edges can still be interpolated. Returns false, leaving the
+    // timeline as is, if no reading has a timestamp
+    boolean clip(long fromNanos, long toNanos) {
+        long before = Long.MIN_VALUE, after = Long.MAX_VALUE;
+        boolean timed = false;
+        for (int r = 0; r < rows; r++) {
+            long t = timeNanos[r];
+            if (t == Long.MIN_VALUE) continue;
+            timed = true;
+            if (t < fromNanos && t > before) before = t;
+            if (t > toNanos && t < after) after = t;
+        }
+        if (!timed) return false;
+        int kept = 0;
+        for (int r = 0; r < rows; r++) {
+            long t = timeNanos[r];
+            if (t == Long.MIN_VALUE || t < fromNanos && t != before || t > toNanos && t != after) continue;
+            timeNanos[kept] = t;
+            elapsedSec[kept] = elapsedSec[r];
+            for (Domain d : domains) {
+                if (d.energyJ != null) d.energyJ[kept] = d.energyJ[r];
+                if (d.powerW != null) d.powerW[kept] = d.powerW[r];
+            }
+            kept++;
+        }
+        rows = kept;
+        for (Domain d : domains) d.index = null;
+        return true;
+    }
+
+    private void permute(double[] values, int[] order, double[] scratch) {
+        for (int r = 0; r < rows; r++) scratch[r] = values[order[r]];
+        System.arraycopy(scratch, 0, values, 0, rows);
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    // Recognized domains: package, IA, uncore, DRAM, then cores in ascending order
+    List<Domain> domains() {
+        return Collections.unmodifiableList(domains);
+    }
+
+    // Domain by name (e.g. "package", "ia", "core 3"), or null if the log does not have it
+    Domain domain(String name) {
+        for (Domain d : domains) {
+            if (d.name.equals(name)) return d;
+        }
+        return null;
+    }
+
+    static String core(int core) {
+        return "core " + core;
+    }
+
+    // Bill each reading interval only the target's share of the host's busy CPU time in it,
+    // or the whole energy again if share is null; applies to the timestamped queries only
+    void apportion(CpuShare share) {
+        this.share = share;
+        for (Domain d : domains) d.index = null;
+    }
+
+    // Leave each reading interval's energy up to the idle power of its domain out of index(),
+    // or keep all of it again if baseline is null; applies to the timestamped queries only
+    void subtractBaseline(IdleBaseline baseline) {
+        this.baseline = baseline;
+        for (Domain d : domains) d.index = null;
+    }
+
+    // Cumulative energy index of a domain over reading time, preferring its energy counter;
+    // only the energy above the idle baseline when one is set
+    PowerIndex index(Domain d) {
+        if (d.index == null) buildIndex(d);
+        return d.index;
+    }
+
+    // The energy index() leaves out as idle power, or null without a baseline for the domain
+    PowerIndex staticIndex(Domain d) {
+        if (d.index == null) buildIndex(d);
+        return d.staticIndex;
+    }
+
+    // True if the domain's timestamped energy is only what it drew above its idle baseline
+    boolean hasBaseline(Domain d) {
+        return baseline != null && !Double.isNaN(baseline.watts(d.name));
+    }
+
+    private void buildIndex(Domain d) {
+        boolean cumulative = (d.energyJ != null);
+        PowerIndex index = PowerIndex.build(timeNanos, cumulative ? d.energyJ : d.powerW, cumulative, rows);
+        double idleW = (baseline == null) ? Double.NaN : baseline.watts(d.name);
+        PowerIndex idle = Double.isNaN(idleW) ? null : index.upToBaseline(idleW);
+        if (idle != null) index = index.aboveBaseline(idleW);
+        if (share != null) {
+            index = index.scaled(share);
+            if (idle != null) idle = idle.scaled(share);
+        }
+        d.index = index;
+        d.staticIndex = idle;
+    }
+
+    // Energy of a domain over [from, to] from readings aligned by time, or NaN if the source
+    // has no usable timestamps for it
+    double alignedEnergyJ(Domain d, Instant from, Instant to) {
+        if (from == null || to == null || !to.isAfter(from)) return Double.NaN;
+        PowerIndex index = index(d);
+        if (index.isEmpty()) return Double.NaN;
+        double total = index.energyJ(from, to);
+        // Once the baseline or a CPU share is taken out, no energy is a valid result if the
+        // window overlaps the readings
+        boolean adjusted = (baseline != null || share != null);
+        boolean overlaps = PowerIndex.toNanos(to) > index.firstNanos() && PowerIndex.toNanos(from) < index.lastNanos();
+        return (total > 0 || adjusted && overlaps) ? total : Double.NaN;
+    }
+
+    // Idle energy of a domain over [from, to], over the same window as alignedEnergyJ: NaN
+    // without a baseline for the domain or when the window cannot be aligned
+    double alignedStaticEnergyJ(Domain d, Instant from, Instant to) {
+        if (Double.isNaN(alignedEnergyJ(d, from, to))) return Double.NaN;
+        PowerIndex idle = staticIndex(d);
+        return (idle == null) ? Double.NaN : idle.energyJ(from, to);
+    }
+
+    // Energy of a domain over the whole log, or NaN if it cannot be integrated
+    double wholeFileEnergyJ(Domain d) {
+        double totalJ = 0.0;
+        if (d.energyJ != null) {
+            double prev = Double.NaN;
+            for (int r = 0; r < rows; r++) {
+                double e = d.energyJ[r];
+                if (Double.isNaN(e)) continue;
+                if (!Double.isNaN(prev) && e >= prev) totalJ += (e - prev);
+                prev = e;
+            }
+            if (Double.isNaN(prev)) return Double.NaN;
+            return (totalJ == 0.0) ? prev : totalJ;
+        }
+        double prevT = Double.NaN, prevP = Double.NaN;
+        for (int r = 0; r < rows; r++) {
+            double t = elapsedSec[r], p = d.powerW[r];
+            if (Double.isNaN(t) || Double.isNaN(p)) continue;
+            if (!Double.isNaN(prevT)) totalJ += Math.max(0, t - prevT) * Math.max(0, prevP);
+            prevT = t;
+            prevP = p;
+        }
+        return Double.isNaN(prevT) ? Double.NaN : totalJ;
+    }
+
+    private int addRow() {
+        if (rows == timeNanos.length) {
+            int n = rows * 2;
+            timeNanos = Arrays.copyOf(timeNanos, n);
+            elapsedSec = Arrays.copyOf(elapsedSec, n);
+            for (Domain d : domains) {
+                if (d.energyJ != null) d.energyJ = Arrays.copyOf(d.energyJ, n);
+                if (d.powerW != null) d.powerW = Arrays.copyOf(d.powerW, n);
+            }
+        }
+        return rows++;
+    }
+
+    // Assign energy (J) and power (W) channels to domains; the first channel of each kind wins
+    private static List<Domain> domainsOf(List<PowerSource.Channel> channels) {
+        Map<String, Domain> byName = new LinkedHashMap<>();
+        for (int i = 0; i < channels.size(); i++) {
+            PowerSource.Channel c = channels.get(i);
+            Domain d = byName.computeIfAbsent(c.domain, Domain::new);
+            if (c.cumulative && d.energyIdx < 0) {
+                d.energyIdx = i;
+                d.energyColumn = c.label;
+            } else if (!c.cumulative && d.powerIdx < 0) {
+                d.powerIdx = i;
+                d.powerColumn = c.label;
+            }
+        }
+        List<Domain> domains = new ArrayList<>(byName.values());
+        domains.sort(Comparator.comparingInt(d -> d.order));
+        return domains;
+    }
+
+    // Report order of a domain: package, IA, uncore, DRAM, then cores
+    private static final Pattern CORE_NAME = Pattern.compile("core (\\d+)");
+
+    private static int orderOf(String name) {
+        switch (name) {
+            case PACKAGE: return 0;
+            case IA: return 1;
+            case UNCORE: return 2;
+            case DRAM: return 3;
+            default:
+                Matcher core = CORE_NAME.matcher(name);
+                return core.matches() ? 4 + Integer.parseInt(core.group(1)) : Integer.MAX_VALUE;
+        }
+    }
+}
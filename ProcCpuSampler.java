@@ -0,0 +1,109 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * ProcCpuSampler - Cumulative CPU time of the whole system and of one process, read from
+ * {@code <proc-root>/stat} and {@code <proc-root>/<pid>/stat}.
+ *
+ * System busy time is the sum of the non-idle fields of the aggregate {@code cpu} line (user,
+ * nice, system, irq, softirq, steal; guest time is already in user). Process time is utime
+ * plus stime, without the children's. Both files stay open and are re-read from offset 0
+ * into one reused buffer, and only the first line of /proc/stat is read, so a poll allocates
+ * nothing.
+ */
+final class ProcCpuSampler implements AutoCloseable {
+    // Clock ticks of /proc times; USER_HZ is 100 on every Linux ABI
+    static final long USER_HZ = 100;
+    private static final long NANOS_PER_TICK = 1_000_000_000L / USER_HZ;
+    private static final int UTIME_FIELD = 14;
+
+    private final Path systemPath;
+    private final FileChannel systemStat;
+    private final FileChannel processStat;   // null when only the system is read
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1024);
+    private final long[] fields = new long[10];
+
+    // Read the system and, if pid >= 0, that process
+    ProcCpuSampler(Path procRoot, long pid) throws IOException {
+        systemPath = procRoot.resolve("stat");
+        systemStat = FileChannel.open(systemPath, StandardOpenOption.READ);
+        try {
+            processStat = (pid < 0) ? null
+                    : FileChannel.open(procRoot.resolve(Long.toString(pid)).resolve("stat"), StandardOpenOption.READ);
+        } catch (IOException e) {
+            systemStat.close();
+            throw new IOException("No such process: " + pid + " under " + procRoot, e);
+        }
+        busyNanos(); // fail now if the format is not understood
+    }
+
+    // Non-idle CPU time of all CPUs since boot
+    long busyNanos() throws IOException {
+        int length = read(systemStat);
+        if (length < 4 || buf.get(0) != 'c' || buf.get(1) != 'p' || buf.get(2) != 'u' || buf.get(3) != ' ') {
+            throw new IOException(systemPath + ": expected the aggregate cpu line first");
+        }
+        int i = 4, n = 0;
+        while (n < fields.length) {
+            while (i < length && buf.get(i) == ' ') i++;
+            if (i >= length || buf.get(i) == '\n') break;
+            long v = 0;
+            for (; i < length && buf.get(i) >= '0' && buf.get(i) <= '9'; i++) v = v * 10 + (buf.get(i) - '0');
+            fields[n++] = v;
+        }
+        if (n < 4) throw new IOException(systemPath + ": too few fields on the cpu line");
+        // user nice system idle iowait irq softirq steal guest guest_nice
+        long busy = fields[0] + fields[1] + fields[2];
+        for (int f = 5; f < Math.min(n, 8); f++) busy += fields[f];
+        return busy * NANOS_PER_TICK;
+    }
+
+    // utime + stime of the process, or -1 if it has ended
+    long processNanos() {
+        int length;
+        try {
+            length = read(processStat);
+        } catch (IOException e) {
+            return -1;
+        }
+        // Fields are counted from the last ')', as the command name may contain spaces
+        int i = length - 1;
+        while (i >= 0 && buf.get(i) != ')') i--;
+        if (i < 0) return -1;
+        int field = 2;
+        for (i++; i < length && field < UTIME_FIELD; i++) {
+            if (buf.get(i) == ' ') field++;
+        }
+        long total = 0;
+        for (int f = 0; f < 2; f++) {
+            long v = 0;
+            int digits = 0;
+            for (; i < length && buf.get(i) >= '0' && buf.get(i) <= '9'; i++, digits++) v = v * 10 + (buf.get(i) - '0');
+            if (digits == 0) return -1;
+            total += v;
+            i++; // the separating space
+        }
+        return total * NANOS_PER_TICK;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            systemStat.close();
+        } finally {
+            if (processStat != null) processStat.close();
+        }
+    }
+
+    private int read(FileChannel ch) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, buf.position()) <= 0) break;
+        }
+        return buf.position();
+    }
+}
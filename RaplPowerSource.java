@@ -0,0 +1,173 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * RaplPowerSource - Cumulative energy of the Linux powercap RAPL zones
+ * ({@code <root>/intel-rapl:N} packages and their {@code intel-rapl:N:M} core, uncore and
+ * dram subzones).
+ *
+ * {@code energy_uj} is a free-running counter that wraps at {@code max_energy_range_uj};
+ * each read adds the wrap-corrected increase since the previous read, so the returned
+ * joules only ever grow. Zones with the same domain on different sockets are summed. This is
+ * a live source: each reading samples the counters at that moment. The location is the
+ * sysfs root, so the reader can run against a fake tree.
+ */
+public final class RaplPowerSource implements PowerSource {
+    static final Path DEFAULT_ROOT = Paths.get("/sys/class/powercap");
+
+    @Override
+    public String name() {
+        return "rapl";
+    }
+
+    @Override
+    public String description() {
+        return "Linux powercap RAPL counters, read live (location: sysfs root, default " + DEFAULT_ROOT + ")";
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+
+    @Override
+    public boolean accepts(String location) {
+        if (location == null || !Files.isDirectory(Paths.get(location))) return false;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(Paths.get(location), "intel-rapl:*")) {
+            return dirs.iterator().hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Readings open(String location) throws IOException {
+        return new RaplReadings((location == null) ? DEFAULT_ROOT : Paths.get(location));
+    }
+
+    private static final class Zone {
+        final Path energyFile;
+        final long maxEnergyUj;
+        final int domain;
+        long lastUj;
+        double joules;
+
+        Zone(Path energyFile, long maxEnergyUj, int domain, long firstUj) {
+            this.energyFile = energyFile;
+            this.maxEnergyUj = maxEnergyUj;
+            this.domain = domain;
+            this.lastUj = firstUj;
+        }
+    }
+
+    private static final class RaplReadings implements Readings {
+        private final List<Channel> channels = new ArrayList<>();
+        private final Zone[] zones;
+        private final double[] joules;
+        private long timeNanos = Long.MIN_VALUE;
+        private long firstNanos;
+
+        RaplReadings(Path root) throws IOException {
+            List<Path> zoneDirs = new ArrayList<>();
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, "intel-rapl:*")) {
+                for (Path dir : dirs) zoneDirs.add(dir);
+            } catch (NoSuchFileException e) {
+                throw new IOException("powercap directory not found: " + root);
+            }
+            zoneDirs.sort(Comparator.comparing(Path::toString));
+
+            List<String> domainNames = new ArrayList<>();
+            List<Zone> found = new ArrayList<>();
+            for (Path dir : zoneDirs) {
+                Path energyFile = dir.resolve("energy_uj");
+                if (!Files.isRegularFile(energyFile)) continue;
+                String domain = domainOf(readLine(dir.resolve("name")));
+                if (domain == null) continue;
+                int d = domainNames.indexOf(domain);
+                if (d < 0) {
+                    d = domainNames.size();
+                    domainNames.add(domain);
+                }
+                long max = Files.exists(dir.resolve("max_energy_range_uj")) ? readLong(dir.resolve("max_energy_range_uj")) : 0;
+                found.add(new Zone(energyFile, max, d, readLong(energyFile)));
+            }
+            if (found.isEmpty()) {
+                throw new IOException("No readable RAPL zones under " + root + " (energy_uj may need root access)");
+            }
+            for (String d : domainNames) channels.add(new Channel(d, true, "intel-rapl " + d));
+            this.zones = found.toArray(new Zone[0]);
+            this.joules = new double[domainNames.size()];
+        }
+
+        @Override
+        public List<Channel> channels() {
+            return channels;
+        }
+
+        // Sample every zone now; joules consumed per domain since the source was opened
+        @Override
+        public boolean next() throws IOException {
+            Arrays.fill(joules, 0.0);
+            for (Zone z : zones) {
+                long uj = readLong(z.energyFile);
+                long delta = uj - z.lastUj;
+                // The counter wrapped past max_energy_range_uj back to zero
+                if (delta < 0) delta += z.maxEnergyUj;
+                if (delta > 0) z.joules += delta / 1e6;
+                z.lastUj = uj;
+                joules[z.domain] += z.joules;
+            }
+            long now = PowerIndex.toNanos(Instant.now());
+            if (timeNanos == Long.MIN_VALUE) firstNanos = now;
+            timeNanos = now;
+            return true;
+        }
+
+        @Override
+        public long timeNanos() {
+            return timeNanos;
+        }
+
+        @Override
+        public double elapsedSec() {
+            return (timeNanos == Long.MIN_VALUE) ? Double.NaN : (timeNanos - firstNanos) / 1e9;
+        }
+
+        @Override
+        public double value(int channel) {
+            return joules[channel];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // RAPL zone name (package-0, core, uncore, dram) to timeline domain
+    private static String domainOf(String zoneName) {
+        if (zoneName.startsWith("package")) return PowerTimeline.PACKAGE;
+        switch (zoneName) {
+            case "core": return PowerTimeline.IA;
+            case "uncore": return PowerTimeline.UNCORE;
+            case "dram": return PowerTimeline.DRAM;
+            default: return null;   // e.g. psys, which overlaps the package zones
+        }
+    }
+
+    private static String readLine(Path file) throws IOException {
+        return new String(Files.readAllBytes(file)).trim();
+    }
+
+    private static long readLong(Path file) throws IOException {
+        String s = readLine(file);
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected value '" + s + "' in " + file);
+        }
+    }
+}
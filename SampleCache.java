@@ -0,0 +1,408 @@
+package demo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * SampleCache - Columnar sidecar file ({@code <profile.jfr>.samples}) holding the decoded
+ * samples of a recording, so repeated analyses map it instead of decoding the JFR file.
+ *
+ * The samples are stored as primitive columns (timestamp, thread id, stack id), followed by
+ * the stack dictionary (method ids of each distinct stack, leaf first), the recorded
+ * {@link EnergySample} readings, the method dictionary and the names of the sampled threads. Stacks rather than winning
+ * methods are cached, so frame rules, call trees and time alignment still apply per run.
+ * The header carries the SHA-256 of the recording and the decoder version; a cache that
+ * matches neither is rebuilt.
+ *
+ * Layout, little-endian, every column 8-byte aligned:
+ * <pre>
+ *   magic, format version, decoder version    3 x int
+ *   SHA-256 of the recording                   32 bytes
+ *   samples, stacks, frames, energy rows, methods   5 x int
+ *   timestamps long[samples], thread ids long[samples], stack ids int[samples] (-1 = no frames)
+ *   stack starts int[stacks + 1], frames int[frames]
+ *   energy timestamps long[rows], joules double[rows * EnergySample.DOMAINS]
+ *   methods: class name, method name, descriptor as (int length, UTF-8) each
+ *   threads: int count, then per thread long id, long OS thread id (-1 = unknown), and name as (int length, UTF-8)
+ * </pre>
+ */
+final class SampleCache {
+    private static final int MAGIC = 0x4A534331; // "JSC1"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+    private static final int DOMAINS = EnergySample.DOMAINS.length;
+
+    final int samples;
+    final int stacks;
+    final int energyRows;
+    final MethodDictionary methods = new MethodDictionary();
+    private final LongMap<String> threadNames = new LongMap<>(256);
+    private final LongMap<Long> osThreadIds = new LongMap<>(256);
+    private final LongBuffer timeNanos;
+    private final LongBuffer threadIds;
+    private final IntBuffer stackIds;
+    private final IntBuffer stackStarts;
+    private final IntBuffer frames;
+    private final LongBuffer energyNanos;
+    private final DoubleBuffer energyJ;
+
+    private SampleCache(ByteBuffer buf) throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        samples = buf.getInt(44);
+        stacks = buf.getInt(48);
+        int frameCount = buf.getInt(52);
+        energyRows = buf.getInt(56);
+        int methodCount = buf.getInt(60);
+        if (samples < 0 || stacks < 0 || frameCount < 0 || energyRows < 0 || methodCount < 0) {
+            throw new IOException("Corrupt sample cache header");
+        }
+        int pos = HEADER_SIZE;
+        timeNanos = section(buf, pos, 8L * samples).asLongBuffer();
+        pos = align(pos + 8L * samples);
+        threadIds = section(buf, pos, 8L * samples).asLongBuffer();
+        pos = align(pos + 8L * samples);
+        stackIds = section(buf, pos, 4L * samples).asIntBuffer();
+        pos = align(pos + 4L * samples);
+        stackStarts = section(buf, pos, 4L * (stacks + 1)).asIntBuffer();
+        pos = align(pos + 4L * (stacks + 1));
+        frames = section(buf, pos, 4L * frameCount).asIntBuffer();
+        pos = align(pos + 4L * frameCount);
+        energyNanos = section(buf, pos, 8L * energyRows).asLongBuffer();
+        pos = align(pos + 8L * energyRows);
+        energyJ = section(buf, pos, 8L * energyRows * DOMAINS).asDoubleBuffer();
+        pos = align(pos + 8L * energyRows * DOMAINS);
+
+        ByteBuffer strings = section(buf, pos, buf.limit() - pos);
+        for (int m = 0; m < methodCount; m++) {
+            methods.intern(readString(strings), readString(strings), readString(strings));
+        }
+        if (strings.remaining() < 4) throw new IOException("Truncated sample cache");
+        int threadCount = strings.getInt();
+        for (int t = 0; t < threadCount; t++) {
+            if (strings.remaining() < 16) throw new IOException("Truncated sample cache");
+            long threadId = strings.getLong();
+            osThreadIds.put(threadId, strings.getLong());
+            threadNames.put(threadId, readString(strings));
+        }
+    }
+
+    // Sidecar location of a recording's cache
+    static Path pathFor(Path jfrPath) {
+        return jfrPath.resolveSibling(jfrPath.getFileName() + ".samples");
+    }
+
+    // SHA-256 of the recording's content, read through memory-mapped windows
+    static byte[] contentHash(Path jfrPath) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        try (FileChannel ch = FileChannel.open(jfrPath, StandardOpenOption.READ)) {
+            long size = ch.size();
+            for (long offset = 0; offset < size; offset += 1 << 26) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Hashing cancelled");
+                digest.update(ch.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(1 << 26, size - offset)));
+            }
+        }
+        return digest.digest();
+    }
+
+    // Map a cache file, or return null if it is missing, truncated, or was built from another
+    // recording or decoder version
+    static SampleCache open(Path cachePath, byte[] jfrHash) throws IOException {
+        if (!Files.isRegularFile(cachePath)) return null;
+        try (FileChannel ch = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_SIZE || ch.size() > Integer.MAX_VALUE) return null;
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (!matches(buf, jfrHash)) return null;
+            try {
+                return new SampleCache(buf);
+            } catch (IOException e) {
+                System.err.println("Warning: ignoring sample cache " + cachePath + ": " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private static boolean matches(ByteBuffer buf, byte[] jfrHash) {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION || buf.getInt(8) != JfrSampleDecoder.VERSION) {
+            return false;
+        }
+        for (int i = 0; i < jfrHash.length; i++) {
+            if (buf.get(12 + i) != jfrHash[i]) return false;
+        }
+        return true;
+    }
+
+    long timeNanos(int sample) {
+        return timeNanos.get(sample);
+    }
+
+    long threadId(int sample) {
+        return threadIds.get(sample);
+    }
+
+    // Name of a sampled thread, or null if the recording did not name it
+    String threadName(long threadId) {
+        String name = threadNames.get(threadId);
+        return (name == null || name.isEmpty()) ? null : name;
+    }
+
+    // Operating system id of a sampled thread, or -1 if unknown
+    long osThreadId(long threadId) {
+        Long tid = osThreadIds.get(threadId);
+        return (tid == null) ? -1 : tid;
+    }
+
+    // Stack of a sample, or -1 if it had no frames
+    int stackId(int sample) {
+        return stackIds.get(sample);
+    }
+
+    int depth(int stack) {
+        return stackStarts.get(stack + 1) - stackStarts.get(stack);
+    }
+
+    // Method id of frame i (leaf = 0) of a stack
+    int methodId(int stack, int i) {
+        return frames.get(stackStarts.get(stack) + i);
+    }
+
+    long energyNanos(int row) {
+        return energyNanos.get(row);
+    }
+
+    // Cumulative joules of a recorded reading, in EnergySample.DOMAINS order
+    void energyJoules(int row, double[] joules) {
+        for (int d = 0; d < DOMAINS; d++) joules[d] = energyJ.get(row * DOMAINS + d);
+    }
+
+    private static ByteBuffer section(ByteBuffer buf, int pos, long length) throws IOException {
+        if (pos + length > buf.limit()) throw new IOException("Truncated sample cache");
+        ByteBuffer slice = buf.duplicate();
+        slice.position(pos).limit((int) (pos + length));
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int align(long pos) throws IOException {
+        long aligned = (pos + 7) & ~7L;
+        if (aligned > Integer.MAX_VALUE) throw new IOException("Sample cache exceeds 2 GB");
+        return (int) aligned;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        if (in.remaining() < 4) throw new IOException("Truncated sample cache");
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) throw new IOException("Corrupt sample cache string");
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Collects the samples of the memory-mapped decoder into columns, interning each
+     * distinct stack once across chunks, and lays them out in the cache format.
+     */
+    static final class Builder implements JfrSampleDecoder.SampleSink {
+        private final MethodDictionary methods = new MethodDictionary();
+        private final Map<FrameKey, Integer> stackByFrames = new HashMap<>();
+        private final LongMap<Integer> stackByTraceId = new LongMap<>(4096);   // chunk-local
+        private final LongMap<Integer> methodByKey = new LongMap<>(4096);      // chunk-local
+        private final LongMap<String> threadNames = new LongMap<>(256);        // "" = unnamed
+        private final LongMap<Long> osThreadIds = new LongMap<>(256);
+        private JfrSampleDecoder.ChunkConstants constants;
+        private long[] timeNanos = new long[4096];
+        private long[] threadIds = new long[4096];
+        private int[] stackIds = new int[4096];
+        private int samples;
+        private int[] stackStarts = new int[1024];
+        private int[] frames = new int[8192];
+        private int stacks, frameCount;
+        private long[] energyNanos = new long[256];
+        private double[] energyJ = new double[256 * DOMAINS];
+        private int energyRows;
+
+        @Override
+        public void beginChunk(JfrSampleDecoder.ChunkConstants constants) {
+            this.constants = constants;
+            stackByTraceId.clear();
+            methodByKey.clear();
+        }
+
+        @Override
+        public void executionSample(long startNanos, long threadId, long stackTraceId) {
+            if (samples == timeNanos.length) {
+                int n = samples * 2;
+                timeNanos = Arrays.copyOf(timeNanos, n);
+                threadIds = Arrays.copyOf(threadIds, n);
+                stackIds = Arrays.copyOf(stackIds, n);
+            }
+            Integer stack = stackByTraceId.get(stackTraceId);
+            if (stack == null) {
+                stack = intern(constants.frames(stackTraceId));
+                stackByTraceId.put(stackTraceId, stack);
+            }
+            if (threadNames.get(threadId) == null) {
+                String name = constants.threadName(threadId);
+                threadNames.put(threadId, (name == null) ? "" : name);
+                osThreadIds.put(threadId, constants.osThreadId(threadId));
+            }
+            timeNanos[samples] = startNanos;
+            threadIds[samples] = threadId;
+            stackIds[samples] = stack;
+            samples++;
+        }
+
+        @Override
+        public void energySample(long startNanos, double[] joules) {
+            if (energyRows == energyNanos.length) {
+                energyNanos = Arrays.copyOf(energyNanos, energyRows * 2);
+                energyJ = Arrays.copyOf(energyJ, energyRows * 2 * DOMAINS);
+            }
+            energyNanos[energyRows] = startNanos;
+            System.arraycopy(joules, 0, energyJ, energyRows * DOMAINS, DOMAINS);
+            energyRows++;
+        }
+
+        // Global id of a chunk-local stack, by its frames' method identities
+        private int intern(long[] methodKeys) {
+            if (methodKeys == null || methodKeys.length == 0) return -1;
+            int[] ids = new int[methodKeys.length];
+            for (int i = 0; i < ids.length; i++) {
+                long key = methodKeys[i];
+                Integer id = methodByKey.get(key);
+                if (id == null) {
+                    id = methods.intern(constants.className(key), constants.methodName(key), constants.descriptor(key));
+                    methodByKey.put(key, id);
+                }
+                ids[i] = id;
+            }
+            FrameKey key = new FrameKey(ids);
+            Integer existing = stackByFrames.get(key);
+            if (existing != null) return existing;
+            if (stacks + 2 > stackStarts.length) stackStarts = Arrays.copyOf(stackStarts, stackStarts.length * 2);
+            if (frameCount + ids.length > frames.length) {
+                frames = Arrays.copyOf(frames, Math.max(frames.length * 2, frameCount + ids.length));
+            }
+            stackStarts[stacks] = frameCount;
+            System.arraycopy(ids, 0, frames, frameCount, ids.length);
+            frameCount += ids.length;
+            stackStarts[stacks + 1] = frameCount;
+            stackByFrames.put(key, stacks);
+            return stacks++;
+        }
+
+        // The cache file's bytes, readable in place by SampleCache
+        ByteBuffer toBuffer(byte[] jfrHash) throws IOException {
+            List<byte[]> strings = new ArrayList<>(methods.size() * 3);
+            long stringBytes = 0;
+            for (int m = 0; m < methods.size(); m++) {
+                for (String s : new String[] { methods.className(m), methods.methodName(m), methods.descriptor(m) }) {
+                    byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                    strings.add(utf8);
+                    stringBytes += 4 + utf8.length;
+                }
+            }
+            List<Long> threadIdList = new ArrayList<>(threadNames.size());
+            List<byte[]> threadStrings = new ArrayList<>(threadNames.size());
+            threadNames.forEach((threadId, name) -> {
+                threadIdList.add(threadId);
+                threadStrings.add(name.getBytes(StandardCharsets.UTF_8));
+            });
+            stringBytes += 4;
+            for (byte[] name : threadStrings) stringBytes += 8 + 8 + 4 + name.length;
+            long size = HEADER_SIZE;
+            size = align(size + 8L * samples);
+            size = align(size + 8L * samples);
+            size = align(size + 4L * samples);
+            size = align(size + 4L * (stacks + 1));
+            size = align(size + 4L * frameCount);
+            size = align(size + 8L * energyRows);
+            size = align(size + 8L * energyRows * DOMAINS);
+            size = align(size + stringBytes);
+
+            ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(JfrSampleDecoder.VERSION).put(jfrHash);
+            buf.putInt(samples).putInt(stacks).putInt(frameCount).putInt(energyRows).putInt(methods.size());
+            for (int i = 0; i < samples; i++) buf.putLong(timeNanos[i]);
+            pad(buf);
+            for (int i = 0; i < samples; i++) buf.putLong(threadIds[i]);
+            pad(buf);
+            for (int i = 0; i < samples; i++) buf.putInt(stackIds[i]);
+            pad(buf);
+            for (int i = 0; i <= stacks; i++) buf.putInt(stackStarts[i]);
+            pad(buf);
+            for (int i = 0; i < frameCount; i++) buf.putInt(frames[i]);
+            pad(buf);
+            for (int i = 0; i < energyRows; i++) buf.putLong(energyNanos[i]);
+            pad(buf);
+            for (int i = 0; i < energyRows * DOMAINS; i++) buf.putDouble(energyJ[i]);
+            pad(buf);
+            for (byte[] s : strings) buf.putInt(s.length).put(s);
+            buf.putInt(threadIdList.size());
+            for (int i = 0; i < threadIdList.size(); i++) {
+                long threadId = threadIdList.get(i);
+                buf.putLong(threadId).putLong(osThreadIds.get(threadId));
+                buf.putInt(threadStrings.get(i).length).put(threadStrings.get(i));
+            }
+            buf.clear();
+            return buf;
+        }
+
+        // Decoded samples as a cache: written to cachePath if possible, else kept in memory
+        SampleCache build(Path cachePath, byte[] jfrHash) throws IOException {
+            ByteBuffer buf = toBuffer(jfrHash);
+            // Write a temporary file and rename it, so a reader never maps a partial cache
+            Path tmp = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) ch.write(buf);
+                Files.move(tmp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Warning: could not write sample cache " + cachePath + ": " + e.getMessage());
+                Files.deleteIfExists(tmp);
+            }
+            buf.clear();
+            return new SampleCache(buf);
+        }
+
+        private static void pad(ByteBuffer buf) {
+            while ((buf.position() & 7) != 0) buf.put((byte) 0);
+        }
+    }
+
+    // Method ids of a stack, compared by content
+    private static final class FrameKey {
+        final int[] ids;
+        final int hash;
+
+        FrameKey(int[] ids) {
+            this.ids = ids;
+            this.hash = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FrameKey && Arrays.equals(ids, ((FrameKey) o).ids);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * SampleTimeline - Timestamp and winning method id of every attributed sample, in two
+ * primitive columns.
+ *
+ * Once sorted by time it is merge-joined against a {@link PowerIndex}: both sides advance
+ * monotonically, and the energy of each power interval is split evenly among the samples
+ * that fall inside it. Power read more often than samples are taken leaves short runs of
+ * intervals without a sample; their energy goes to the samples that follow, while longer
+ * runs count as unattributed (idle) energy. The join is linear in samples plus power readings.
+ */
+final class SampleTimeline {
+    private long[] nanos = new long[4096];
+    private int[] methodIds = new int[4096];
+    private int size;
+    private boolean sorted = true;
+
+    // Result of a time-aligned join: joules per method id, and what could not be attributed
+    static final class Attribution {
+        final double[] joulesByMethod;
+        double attributedJ;
+        double unattributedJ;    // idle gaps inside the samples' span with no sample
+        long samplesOutside;     // samples before the first or after the last power reading
+        int intervals;
+
+        Attribution(int methodCount) {
+            joulesByMethod = new double[methodCount];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Time of the i-th sample; in time order once sorted
+    long nanos(int i) {
+        return nanos[i];
+    }
+
+    void add(long epochNanos, int methodId) {
+        if (size == nanos.length) grow(size + 1);
+        if (size > 0 && epochNanos < nanos[size - 1]) sorted = false;
+        nanos[size] = epochNanos;
+        methodIds[size] = methodId;
+        size++;
+    }
+
+    // Append another timeline, translating its method ids through remap
+    void append(SampleTimeline other, int[] remap) {
+        if (size + other.size > nanos.length) grow(size + other.size);
+        for (int i = 0; i < other.size; i++) {
+            if (size > 0 && other.nanos[i] < nanos[size - 1]) sorted = false;
+            nanos[size] = other.nanos[i];
+            methodIds[size] = remap[other.methodIds[i]];
+            size++;
+        }
+    }
+
+    // Order samples by time; events within a chunk are only ordered per thread buffer
+    void sort() {
+        if (sorted) return;
+        long[] tmpNanos = new long[size];
+        int[] tmpIds = new int[size];
+        // Bottom-up merge sort over both columns
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                int mid = Math.min(lo + width, size), hi = Math.min(lo + 2 * width, size);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (nanos[j] < nanos[i]) {
+                        tmpNanos[k] = nanos[j];
+                        tmpIds[k++] = methodIds[j++];
+                    } else {
+                        tmpNanos[k] = nanos[i];
+                        tmpIds[k++] = methodIds[i++];
+                    }
+                }
+                while (i < mid) {
+                    tmpNanos[k] = nanos[i];
+                    tmpIds[k++] = methodIds[i++];
+                }
+                while (j < hi) {
+                    tmpNanos[k] = nanos[j];
+                    tmpIds[k++] = methodIds[j++];
+                }
+            }
+            long[] n = nanos;
+            nanos = tmpNanos;
+            tmpNanos = n;
+            int[] m = methodIds;
+            methodIds = tmpIds;
+            tmpIds = m;
+        }
+        sorted = true;
+    }
+
+    // Split the energy of each power interval [t(k), t(k+1)) among the samples inside it
+    Attribution attribute(PowerIndex power, int methodCount) {
+        sort();
+        Attribution result = new Attribution(methodCount);
+        // Runs of empty intervals up to two mean sample periods long are sampling gaps
+        long maxGap = (size > 1) ? 2 * ((nanos[size - 1] - nanos[0]) / (size - 1)) : 0;
+        long gapStart = -1;
+        double gapJ = 0.0;
+        int s = 0;
+        // Samples before the first reading have no interval
+        while (s < size && nanos[s] < power.firstNanos()) s++;
+        result.samplesOutside = s;
+        for (int k = 0; k + 1 < power.size() && s < size; k++) {
+            long begin = power.nanosAt(k), end = power.nanosAt(k + 1);
+            double joules = power.cumulativeJAt(k + 1) - power.cumulativeJAt(k);
+            int first = s;
+            while (s < size && nanos[s] < end) s++;
+            int count = s - first;
+            if (count == 0) {
+                if (result.intervals == 0) continue;
+                if (gapStart < 0) gapStart = begin;
+                gapJ += joules;
+                continue;
+            }
+            if (gapStart >= 0) {
+                if (begin - gapStart <= maxGap) joules += gapJ;
+                else result.unattributedJ += gapJ;
+                gapStart = -1;
+                gapJ = 0.0;
+            }
+            double perSample = joules / count;
+            for (int i = first; i < s; i++) result.joulesByMethod[methodIds[i]] += perSample;
+            result.attributedJ += joules;
+            result.intervals++;
+        }
+        result.unattributedJ += gapJ;
+        result.samplesOutside += size - s;
+        return result;
+    }
+
+    private void grow(int minCapacity) {
+        int n = Math.max(minCapacity, nanos.length * 2);
+        nanos = Arrays.copyOf(nanos, n);
+        methodIds = Arrays.copyOf(methodIds, n);
+    }
+}
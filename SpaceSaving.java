@@ -0,0 +1,232 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * SpaceSaving - Heavy-hitter sketch (Metwally et al., "Space-Saving") over int keys in a
+ * fixed number of counters, for method cardinalities too large to count exactly.
+ *
+ * A new key takes over the counter with the smallest count and inherits that count as its
+ * error. Every counted key then satisfies {@code count - error <= true weight <= count}, each
+ * overestimate is at most total/capacity, and every key whose true weight exceeds
+ * total/capacity is guaranteed to hold a counter. The counters form a min-heap by count, and
+ * an open-addressing table locates the counter of a key, so an update is O(log capacity).
+ */
+final class SpaceSaving {
+    private final int[] keys;
+    private final double[] counts;
+    private final double[] errors;
+    private final int[] slotKeys;    // key -> heap index table, linear probing
+    private final int[] slotIndex;   // heap index + 1, 0 = empty
+    private final int mask;
+    private int size;
+    private double total;
+
+    SpaceSaving(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Heavy-hitter capacity must be positive: " + capacity);
+        keys = new int[capacity];
+        counts = new double[capacity];
+        errors = new double[capacity];
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        slotKeys = new int[tableSize];
+        slotIndex = new int[tableSize];
+        mask = tableSize - 1;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    // Counters in use; index i in [0, size) addresses key(i), count(i), error(i)
+    int size() {
+        return size;
+    }
+
+    int key(int i) {
+        return keys[i];
+    }
+
+    double count(int i) {
+        return counts[i];
+    }
+
+    double error(int i) {
+        return errors[i];
+    }
+
+    // Total weight added
+    double total() {
+        return total;
+    }
+
+    // Estimated weight of a key: its counter, or 0 if it holds none
+    double estimate(int key) {
+        int i = indexOf(key);
+        return (i < 0) ? 0.0 : counts[i];
+    }
+
+    // Overestimate bound of a key's count, or 0 if it holds no counter
+    double errorOf(int key) {
+        int i = indexOf(key);
+        return (i < 0) ? 0.0 : errors[i];
+    }
+
+    // Largest possible overestimate of any count, and upper bound of any uncounted key's weight
+    double maxError() {
+        return (size < keys.length) ? 0.0 : counts[0];
+    }
+
+    void add(int key, double weight) {
+        add(key, weight, 0.0);
+    }
+
+    // Add the counters of another sketch, translating its keys through remap (the mergeable
+    // summaries merge of Agarwal et al.): a key missing from one sketch may have weighed up to
+    // that sketch's smallest count there, so it is charged that count as both weight and error.
+    // The largest capacity counters of the union are kept, and the bound still holds
+    void merge(SpaceSaving other, int[] remap) {
+        double minThis = maxError(), minOther = other.maxError();
+        int n = size;
+        int[] k = Arrays.copyOf(keys, size + other.size);
+        double[] c = Arrays.copyOf(counts, size + other.size);
+        double[] e = Arrays.copyOf(errors, size + other.size);
+        boolean[] shared = new boolean[size];
+        for (int j = 0; j < other.size; j++) {
+            int key = remap[other.keys[j]];
+            int i = indexOf(key);
+            if (i >= 0) {
+                shared[i] = true;
+                c[i] += other.counts[j];
+                e[i] += other.errors[j];
+            } else {
+                k[n] = key;
+                c[n] = other.counts[j] + minThis;
+                e[n++] = other.errors[j] + minThis;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (!shared[i]) {
+                c[i] += minOther;
+                e[i] += minOther;
+            }
+        }
+        // Rebuild the heap from the union, evicting the smallest counter once it is full
+        Arrays.fill(slotIndex, 0);
+        size = 0;
+        for (int i = 0; i < n; i++) {
+            if (size < keys.length) {
+                keys[size] = k[i];
+                counts[size] = c[i];
+                errors[size] = e[i];
+                put(k[i], size);
+                siftUp(size++);
+            } else if (c[i] > counts[0]) {
+                remove(keys[0]);
+                keys[0] = k[i];
+                counts[0] = c[i];
+                errors[0] = e[i];
+                put(k[i], 0);
+                siftDown(0);
+            }
+        }
+        total += other.total;
+    }
+
+    private void add(int key, double weight, double error) {
+        total += weight;
+        int i = indexOf(key);
+        if (i >= 0) {
+            counts[i] += weight;
+            errors[i] += error;
+            siftDown(i);
+            return;
+        }
+        if (size < keys.length) {
+            i = size++;
+            keys[i] = key;
+            counts[i] = weight;
+            errors[i] = error;
+            put(key, i);
+            siftUp(i);
+            return;
+        }
+        // Take over the smallest counter
+        remove(keys[0]);
+        errors[0] = counts[0] + error;
+        counts[0] += weight;
+        keys[0] = key;
+        put(key, 0);
+        siftDown(0);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (counts[child] < counts[smallest]) smallest = child;
+            }
+            if (smallest == i) return;
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        double c = counts[a];
+        counts[a] = counts[b];
+        counts[b] = c;
+        double e = errors[a];
+        errors[a] = errors[b];
+        errors[b] = e;
+        put(keys[a], a);
+        put(keys[b], b);
+    }
+
+    private int indexOf(int key) {
+        for (int s = slot(key); slotIndex[s] != 0; s = (s + 1) & mask) {
+            if (slotKeys[s] == key) return slotIndex[s] - 1;
+        }
+        return -1;
+    }
+
+    private void put(int key, int index) {
+        int s = slot(key);
+        while (slotIndex[s] != 0 && slotKeys[s] != key) s = (s + 1) & mask;
+        slotKeys[s] = key;
+        slotIndex[s] = index + 1;
+    }
+
+    // Delete a key from the table, shifting later entries of its probe run back
+    private void remove(int key) {
+        int s = slot(key);
+        while (slotKeys[s] != key || slotIndex[s] == 0) s = (s + 1) & mask;
+        slotIndex[s] = 0;
+        for (int next = (s + 1) & mask; slotIndex[next] != 0; next = (next + 1) & mask) {
+            int home = slot(slotKeys[next]);
+            // Move the entry into the hole unless its home lies cyclically in (s, next]
+            boolean stays = (s <= next) ? (s < home && home <= next) : (s < home || home <= next);
+            if (stays) continue;
+            slotKeys[s] = slotKeys[next];
+            slotIndex[s] = slotIndex[next];
+            slotIndex[next] = 0;
+            s = next;
+        }
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,128 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * StackCache - Bounded memo of attribution decisions keyed by JFR stack-trace identity.
+ *
+ * In steady state a few thousand distinct stacks account for most samples, so the winning
+ * frame and method id (and the call-tree node, when one is built) are computed once per
+ * stack and repeat stacks cost one probe.
+ * Keys are either the RecordedStackTrace instance (RecordingFile hands out one instance per
+ * stack per chunk) or the chunk-local stack trace id of the memory-mapped decoder.
+ * The table is direct-mapped: a colliding stack simply replaces the previous entry.
+ */
+final class StackCache {
+    static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final int mask;
+    private final Object[] refs;
+    private final long[] keys;
+    private final boolean[] used;
+    private final int[] frames;
+    private final int[] methodIds;
+    private final int[] nodes;
+    private long hits;
+    private long misses;
+
+    StackCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    StackCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+        mask = size - 1;
+        refs = new Object[size];
+        keys = new long[size];
+        used = new boolean[size];
+        frames = new int[size];
+        methodIds = new int[size];
+        nodes = new int[size];
+    }
+
+    // Slot holding the decision for a RecordedStackTrace, or -1 on a miss
+    int lookup(Object stack) {
+        int slot = slot(System.identityHashCode(stack));
+        if (refs[slot] == stack) {
+            hits++;
+            return slot;
+        }
+        misses++;
+        return -1;
+    }
+
+    int put(Object stack, int frame, int methodId, int node) {
+        int slot = slot(System.identityHashCode(stack));
+        refs[slot] = stack;
+        used[slot] = false;
+        frames[slot] = frame;
+        methodIds[slot] = methodId;
+        nodes[slot] = node;
+        return slot;
+    }
+
+    // Slot holding the decision for a decoder stack trace id, or -1 on a miss
+    int lookup(long stackTraceId) {
+        int slot = slot(Long.hashCode(stackTraceId * 0x9E3779B97F4A7C15L));
+        if (used[slot] && keys[slot] == stackTraceId) {
+            hits++;
+            return slot;
+        }
+        misses++;
+        return -1;
+    }
+
+    int put(long stackTraceId, int frame, int methodId, int node) {
+        int slot = slot(Long.hashCode(stackTraceId * 0x9E3779B97F4A7C15L));
+        refs[slot] = null;
+        used[slot] = true;
+        keys[slot] = stackTraceId;
+        frames[slot] = frame;
+        methodIds[slot] = methodId;
+        nodes[slot] = node;
+        return slot;
+    }
+
+    // Winning frame index (leaf = 0) of a cached decision
+    int frame(int slot) {
+        return frames[slot];
+    }
+
+    int methodId(int slot) {
+        return methodIds[slot];
+    }
+
+    // Call-tree node of the full stack, or -1 if no tree is built
+    int node(int slot) {
+        return nodes[slot];
+    }
+
+    // Forget all entries, e.g. when chunk-local stack trace ids go out of scope
+    void clear() {
+        Arrays.fill(refs, null);
+        Arrays.fill(used, false);
+    }
+
+    // Fold the hit/miss statistics of another cache (e.g. a per-chunk one) into this one
+    void addStats(StackCache other) {
+        hits += other.hits;
+        misses += other.misses;
+    }
+
+    long lookups() {
+        return hits + misses;
+    }
+
+    double hitRate() {
+        long n = hits + misses;
+        return (n == 0) ? 0.0 : hits / (double) n;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,144 @@
+package demo;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * TaskScope - Runs independent stages concurrently and fails as a unit, after the model of
+ * {@code StructuredTaskScope.ShutdownOnFailure}.
+ *
+ * Every forked stage runs on its own thread: a virtual thread when the runtime has them
+ * (looked up reflectively, since the code base targets Java 17), else a daemon platform
+ * thread. {@link #join()} waits for all stages; the first failure interrupts the others
+ * and is rethrown. Closing the scope cancels whatever is still running and waits for it, so
+ * no stage outlives the block that forked it. Stages stop early by checking for interruption.
+ */
+final class TaskScope implements AutoCloseable {
+    private static final ThreadFactory VIRTUAL = virtualThreadFactory();
+
+    private final String name;
+    private final ThreadFactory factory;
+    private final List<Subtask<?>> subtasks = new ArrayList<>();
+    private final Object lock = new Object();
+    private int running;   // stages not yet finished
+    private Throwable failure;
+
+    // Result and run time of a forked stage, available after join()
+    static final class Subtask<T> {
+        private Thread thread;
+        private volatile T result;
+        private volatile long nanos;
+
+        T get() {
+            return result;
+        }
+
+        long nanos() {
+            return nanos;
+        }
+    }
+
+    TaskScope(String name) {
+        this.name = name;
+        this.factory = (VIRTUAL != null) ? VIRTUAL : r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // True if stages run on virtual threads
+    static boolean virtualThreads() {
+        return VIRTUAL != null;
+    }
+
+    // Start a stage
+    <T> Subtask<T> fork(String stage, Callable<T> task) {
+        Subtask<T> subtask = new Subtask<>();
+        subtask.thread = factory.newThread(() -> {
+            long start = System.nanoTime();
+            try {
+                subtask.result = task.call();
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                subtask.nanos = System.nanoTime() - start;
+                synchronized (lock) {
+                    running--;
+                    lock.notifyAll();
+                }
+            }
+        });
+        subtask.thread.setName(name + "-" + stage);
+        synchronized (lock) {
+            subtasks.add(subtask);
+            running++;
+        }
+        subtask.thread.start();
+        return subtask;
+    }
+
+    // Wait for every stage; rethrows the first failure after cancelling the other stages
+    void join() throws Exception {
+        synchronized (lock) {
+            while (running > 0 && failure == null) lock.wait();
+            if (failure != null) {
+                cancel();
+                if (failure instanceof Exception) throw (Exception) failure;
+                if (failure instanceof Error) throw (Error) failure;
+                throw new ExecutionException(failure);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        cancel();
+        List<Subtask<?>> all;
+        synchronized (lock) {
+            all = new ArrayList<>(subtasks);
+        }
+        boolean interrupted = false;
+        for (Subtask<?> s : all) {
+            while (s.thread.isAlive()) {
+                try {
+                    s.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void fail(Throwable t) {
+        synchronized (lock) {
+            // Stages interrupted by the cancellation report secondary failures
+            if (failure == null) failure = t;
+            lock.notifyAll();
+        }
+    }
+
+    private void cancel() {
+        synchronized (lock) {
+            for (Subtask<?> s : subtasks) {
+                if (s.thread.isAlive() && s.thread != Thread.currentThread()) s.thread.interrupt();
+            }
+        }
+    }
+
+    // Thread.ofVirtual().factory() on Java 21+, else null
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package demo;
+
+import java.util.Arrays;
+
+/**
+ * ThreadGapWeights - Weights each execution sample by the time since the previous sample of
+ * the same thread, so methods are credited with CPU time rather than raw sample counts.
+ *
+ * JFR's sampler does not reach every thread on schedule: under load, throttling or safepoint
+ * delays the interval between a thread's samples stretches, and each late sample stands for
+ * more execution time. Gaps are capped, since a thread is not sampled while it waits and a
+ * long gap is mostly time off the CPU. A thread's first sample has no gap of its own and is
+ * given the mean gap once all samples are in.
+ *
+ * Weights are kept per int key, a method id or, for the call tree, a node id. Per-thread
+ * state lives in a primitive-keyed map. Results of consecutive chunks merge in
+ * order: a chunk's first sample of a thread takes its gap from the thread's last sample in
+ * the chunks before, so weights do not depend on how the recording was split.
+ */
+final class ThreadGapWeights {
+    private static final class ThreadState {
+        long lastNanos;
+        long firstNanos;
+        int firstMethod;
+        boolean pending;   // first sample not yet weighted
+    }
+
+    private final long maxGapNanos;
+    private final LongMap<ThreadState> threads = new LongMap<>(256);
+    private final SpaceSaving sketch;   // weight per method when counted in fixed memory, else null
+    private double[] weightNanos = new double[256];   // per method id
+    private double totalNanos;   // of the exact per-method weights
+    private double gapNanos;   // sum and count of the measured gaps
+    private long gaps;
+
+    ThreadGapWeights(long maxGapNanos, int heavyHitters) {
+        if (maxGapNanos <= 0) throw new IllegalArgumentException("Maximum sample gap must be positive: " + maxGapNanos);
+        this.maxGapNanos = maxGapNanos;
+        this.sketch = (heavyHitters > 0) ? new SpaceSaving(heavyHitters) : null;
+    }
+
+    // The sketch holding the weights, or null if they are exact
+    SpaceSaving sketch() {
+        return sketch;
+    }
+
+    long maxGapNanos() {
+        return maxGapNanos;
+    }
+
+    // Weigh a sample of a thread credited to a method
+    void add(long threadId, long epochNanos, int methodId) {
+        ThreadState t = threads.get(threadId);
+        if (t == null) {
+            t = new ThreadState();
+            t.firstNanos = epochNanos;
+            t.firstMethod = methodId;
+            t.lastNanos = epochNanos;
+            t.pending = true;
+            threads.put(threadId, t);
+            return;
+        }
+        credit(methodId, gap(t.lastNanos, epochNanos));
+        if (epochNanos > t.lastNanos) t.lastNanos = epochNanos;
+    }
+
+    // Weighted nanoseconds of a method; an estimate when counted in fixed memory
+    double weightNanos(int methodId) {
+        if (sketch != null) return sketch.estimate(methodId);
+        return (methodId < weightNanos.length) ? weightNanos[methodId] : 0.0;
+    }
+
+    double totalNanos() {
+        return (sketch != null) ? sketch.total() : totalNanos;
+    }
+
+    // Mean weight of a sample, in nanoseconds
+    double meanGapNanos() {
+        return (gaps == 0) ? maxGapNanos : Math.min(maxGapNanos, gapNanos / gaps);
+    }
+
+    // Fold in the weights of the next chunk(s), translating method ids through remap
+    void merge(ThreadGapWeights other, int[] remap) {
+        if (sketch != null) {
+            sketch.merge(other.sketch, remap);
+        } else {
+            for (int id = 0; id < other.weightNanos.length; id++) {
+                if (other.weightNanos[id] != 0) addWeight(remap[id], other.weightNanos[id]);
+            }
+        }
+        gapNanos += other.gapNanos;
+        gaps += other.gaps;
+        other.threads.forEach((threadId, o) -> {
+            ThreadState mine = threads.get(threadId);
+            if (mine == null) {
+                ThreadState copy = new ThreadState();
+                copy.firstNanos = o.firstNanos;
+                copy.firstMethod = remap[o.firstMethod];
+                copy.lastNanos = o.lastNanos;
+                copy.pending = o.pending;
+                threads.put(threadId, copy);
+                return;
+            }
+            if (o.pending) credit(remap[o.firstMethod], gap(mine.lastNanos, o.firstNanos));
+            if (o.lastNanos > mine.lastNanos) mine.lastNanos = o.lastNanos;
+        });
+    }
+
+    // Weigh the first sample of every thread with the mean gap; safe to call more than once
+    void finish() {
+        double mean = meanGapNanos();
+        threads.forEach((threadId, t) -> {
+            if (!t.pending) return;
+            t.pending = false;
+            if (sketch != null) sketch.add(t.firstMethod, mean);
+            else addWeight(t.firstMethod, mean);
+        });
+    }
+
+    private long gap(long previousNanos, long epochNanos) {
+        return Math.min(maxGapNanos, Math.max(0, epochNanos - previousNanos));
+    }
+
+    private void credit(int methodId, long gap) {
+        gapNanos += gap;
+        gaps++;
+        if (sketch != null) sketch.add(methodId, gap);
+        else addWeight(methodId, gap);
+    }
+
+    private void addWeight(int methodId, double nanos) {
+        if (methodId >= weightNanos.length) weightNanos = Arrays.copyOf(weightNanos, Math.max(methodId + 1, weightNanos.length * 2));
+        weightNanos[methodId] += nanos;
+        totalNanos += nanos;
+    }
+}
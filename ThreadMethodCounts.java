@@ -0,0 +1,76 @@
+package demo;
+
+/**
+ * ThreadMethodCounts - Samples per (thread id, method id) pair in one open-addressing table of
+ * primitive columns, so per-thread attribution costs one probe per sample and no boxing or
+ * nested maps.
+ */
+final class ThreadMethodCounts {
+    private long[] threadIds;
+    private int[] methodIds;
+    private long[] counts;   // 0 = empty slot
+    private int size;
+    private int mask;
+
+    // Receives the non-empty cells of the table
+    interface Visitor {
+        void visit(long threadId, int methodId, long count);
+    }
+
+    ThreadMethodCounts() {
+        allocate(1024);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(long threadId, int methodId, long n) {
+        int i = slot(threadId, methodId);
+        while (counts[i] != 0) {
+            if (threadIds[i] == threadId && methodIds[i] == methodId) {
+                counts[i] += n;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        threadIds[i] = threadId;
+        methodIds[i] = methodId;
+        counts[i] = n;
+        if (++size * 2 > counts.length) grow();
+    }
+
+    void forEach(Visitor visitor) {
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) visitor.visit(threadIds[i], methodIds[i], counts[i]);
+        }
+    }
+
+    // Add the counts of another table, translating its method ids through remap
+    void merge(ThreadMethodCounts other, int[] remap) {
+        other.forEach((threadId, methodId, count) -> add(threadId, remap[methodId], count));
+    }
+
+    private int slot(long threadId, int methodId) {
+        long h = (threadId * 0x9E3779B97F4A7C15L) ^ (methodId * 0xC2B2AE3D27D4EB4FL);
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        threadIds = new long[capacity];
+        methodIds = new int[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private void grow() {
+        long[] oldThreads = threadIds;
+        int[] oldMethods = methodIds;
+        long[] oldCounts = counts;
+        allocate(oldCounts.length * 2);
+        size = 0;
+        for (int i = 0; i < oldCounts.length; i++) {
+            if (oldCounts[i] != 0) add(oldThreads[i], oldMethods[i], oldCounts[i]);
+        }
+    }
+}
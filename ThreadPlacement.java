@@ -0,0 +1,150 @@
+package demo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * ThreadPlacement - The CPUs the threads of a profiled process ran on over time, read from
+ * a placement log written by {@code EnergyAttribution --record-placement}.
+ *
+ * The log is a CSV file with the header {@value #HEADER} and one row per observed move:
+ * epoch nanoseconds, OS thread id, and the CPU the thread was found on. Each thread's moves
+ * are kept in two primitive columns, so the CPU of a sample is a binary search.
+ */
+final class ThreadPlacement {
+    static final String HEADER = "epoch_nanos,tid,cpu";
+
+    private static final class Track {
+        long[] nanos = new long[16];
+        int[] cpus = new int[16];
+        int size;
+    }
+
+    private final LongMap<Track> tracks = new LongMap<>(256);
+    private long rows;
+
+    static ThreadPlacement load(Path log) throws IOException {
+        ThreadPlacement placement = new ThreadPlacement();
+        try (BufferedReader in = Files.newBufferedReader(log)) {
+            String line = in.readLine();
+            if (line == null || !line.trim().equals(HEADER)) {
+                throw new IOException(log + ": not a placement log, expected header " + HEADER);
+            }
+            int lineNo = 1;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) continue;
+                String[] f = line.split(",");
+                try {
+                    if (f.length != 3) throw new NumberFormatException("expected 3 fields");
+                    placement.add(Long.parseLong(f[0].trim()), Long.parseLong(f[1].trim()), Integer.parseInt(f[2].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException(log + ":" + lineNo + ": invalid placement row '" + line + "'");
+                }
+            }
+        }
+        placement.tracks.forEach((tid, t) -> placement.sort(t));
+        return placement;
+    }
+
+    // Write the header of a new placement log
+    static void writeHeader(BufferedWriter out) throws IOException {
+        out.write(HEADER);
+        out.newLine();
+    }
+
+    static void writeRow(BufferedWriter out, long epochNanos, long tid, int cpu) throws IOException {
+        out.write(Long.toString(epochNanos));
+        out.write(',');
+        out.write(Long.toString(tid));
+        out.write(',');
+        out.write(Integer.toString(cpu));
+        out.newLine();
+    }
+
+    int threads() {
+        return tracks.size();
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    // CPU a thread ran on at a time: its last observed placement at or before then, else its
+    // first one; -1 if the thread was never observed
+    int cpuAt(long tid, long epochNanos) {
+        Track t = tracks.get(tid);
+        if (t == null) return -1;
+        int i = Arrays.binarySearch(t.nanos, 0, t.size, epochNanos);
+        if (i < 0) i = -i - 2;   // last row before
+        return t.cpus[Math.max(0, Math.min(i, t.size - 1))];
+    }
+
+    private void add(long epochNanos, long tid, int cpu) {
+        if (cpu < 0) throw new NumberFormatException("negative CPU");
+        Track t = tracks.get(tid);
+        if (t == null) {
+            t = new Track();
+            tracks.put(tid, t);
+        }
+        if (t.size == t.nanos.length) {
+            t.nanos = Arrays.copyOf(t.nanos, t.size * 2);
+            t.cpus = Arrays.copyOf(t.cpus, t.size * 2);
+        }
+        t.nanos[t.size] = epochNanos;
+        t.cpus[t.size] = cpu;
+        t.size++;
+        rows++;
+    }
+
+    // Rows are written in time order; only a hand-made or concatenated log needs sorting. A
+    // track holds one thread, so ordering it by time orders its rows by (tid, time).
+    private void sort(Track t) {
+        boolean sorted = true;
+        for (int i = 1; i < t.size && sorted; i++) sorted = t.nanos[i - 1] <= t.nanos[i];
+        if (sorted) return;
+        int size = t.size;
+        long[] nanos = t.nanos, tmpNanos = new long[nanos.length];
+        int[] cpus = t.cpus, tmpCpus = new int[cpus.length];
+        // Bottom-up merge sort over both columns, copying runs that are already in order
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                int mid = Math.min(lo + width, size), hi = Math.min(lo + 2 * width, size);
+                if (mid == hi || nanos[mid - 1] <= nanos[mid]) {
+                    System.arraycopy(nanos, lo, tmpNanos, lo, hi - lo);
+                    System.arraycopy(cpus, lo, tmpCpus, lo, hi - lo);
+                    continue;
+                }
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (nanos[j] < nanos[i]) {
+                        tmpNanos[k] = nanos[j];
+                        tmpCpus[k++] = cpus[j++];
+                    } else {
+                        tmpNanos[k] = nanos[i];
+                        tmpCpus[k++] = cpus[i++];
+                    }
+                }
+                while (i < mid) {
+                    tmpNanos[k] = nanos[i];
+                    tmpCpus[k++] = cpus[i++];
+                }
+                while (j < hi) {
+                    tmpNanos[k] = nanos[j];
+                    tmpCpus[k++] = cpus[j++];
+                }
+            }
+            long[] n = nanos;
+            nanos = tmpNanos;
+            tmpNanos = n;
+            int[] c = cpus;
+            cpus = tmpCpus;
+            tmpCpus = c;
+        }
+        t.nanos = nanos;
+        t.cpus = cpus;
+    }
+}
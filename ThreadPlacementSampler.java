@@ -0,0 +1,175 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * ThreadPlacementSampler - Reads the CPU each thread of a process last ran on from
+ * {@code <proc-root>/<pid>/task/<tid>/stat} (the {@code processor} field, 39th).
+ *
+ * Built to be polled every few milliseconds: each thread's stat file stays open and is
+ * re-read from offset 0 into one reused direct buffer, and the field is parsed from the raw
+ * bytes, so a poll allocates nothing. The task directory is only listed by {@link #rescan()},
+ * which picks up new threads and drops ended ones; a thread that ends between rescans is
+ * dropped when its stat file stops reading.
+ */
+final class ThreadPlacementSampler implements AutoCloseable {
+    static final String DEFAULT_PROC_ROOT = "/proc";
+    private static final int PROCESSOR_FIELD = 39;
+
+    private final Path taskDir;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(4096);
+    private long[] tids = new long[64];
+    private FileChannel[] stats = new FileChannel[64];
+    private int[] cpus = new int[64];   // last read placement per thread, -1 = not read yet
+    private int threads;
+    private long[] movedTids = new long[64];
+    private int[] movedCpus = new int[64];
+
+    ThreadPlacementSampler(Path procRoot, long pid) throws IOException {
+        this.taskDir = procRoot.resolve(Long.toString(pid)).resolve("task");
+        if (!Files.isDirectory(taskDir)) throw new IOException("No such process task directory: " + taskDir);
+        rescan();
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    // List the task directory: open the stat files of new threads, close those of ended ones
+    void rescan() throws IOException {
+        LongMap<Integer> known = new LongMap<>(threads);
+        for (int i = 0; i < threads; i++) known.put(tids[i], i);
+        long[] newTids = new long[Math.max(64, threads)];
+        FileChannel[] newStats = new FileChannel[newTids.length];
+        int[] newCpus = new int[newTids.length];
+        boolean[] kept = new boolean[threads];
+        int n = 0;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(taskDir)) {
+            for (Path task : dir) {
+                long tid;
+                try {
+                    tid = Long.parseLong(task.getFileName().toString());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (n == newTids.length) {
+                    newTids = Arrays.copyOf(newTids, n * 2);
+                    newStats = Arrays.copyOf(newStats, n * 2);
+                    newCpus = Arrays.copyOf(newCpus, n * 2);
+                }
+                Integer old = known.get(tid);
+                if (old != null) {
+                    kept[old] = true;
+                    newStats[n] = stats[old];
+                    newCpus[n] = cpus[old];
+                } else {
+                    try {
+                        newStats[n] = FileChannel.open(task.resolve("stat"), StandardOpenOption.READ);
+                    } catch (IOException e) {
+                        continue; // ended while listing
+                    }
+                    newCpus[n] = -1;
+                }
+                newTids[n++] = tid;
+            }
+        } catch (NoSuchFileException e) {
+            // The process ended; every thread is dropped
+        }
+        for (int i = 0; i < threads; i++) {
+            if (!kept[i]) closeQuietly(stats[i]);
+        }
+        tids = newTids;
+        stats = newStats;
+        cpus = newCpus;
+        threads = n;
+    }
+
+    // Read the placement of every thread; returns how many threads are new or ran on another
+    // CPU since the previous poll, available through movedTid/movedCpu until the next poll
+    int sample() {
+        int moved = 0;
+        for (int i = 0; i < threads; i++) {
+            int cpu = readProcessor(stats[i]);
+            if (cpu < 0) {
+                // Ended: drop it by moving the last thread into its slot
+                closeQuietly(stats[i]);
+                threads--;
+                tids[i] = tids[threads];
+                stats[i] = stats[threads];
+                cpus[i] = cpus[threads];
+                stats[threads] = null;
+                i--;
+                continue;
+            }
+            if (cpu == cpus[i]) continue;
+            cpus[i] = cpu;
+            if (moved == movedTids.length) {
+                movedTids = Arrays.copyOf(movedTids, moved * 2);
+                movedCpus = Arrays.copyOf(movedCpus, moved * 2);
+            }
+            movedTids[moved] = tids[i];
+            movedCpus[moved] = cpu;
+            moved++;
+        }
+        return moved;
+    }
+
+    long movedTid(int i) {
+        return movedTids[i];
+    }
+
+    int movedCpu(int i) {
+        return movedCpus[i];
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < threads; i++) closeQuietly(stats[i]);
+        threads = 0;
+    }
+
+    // The processor field of a stat file, or -1 if it cannot be read (the thread ended)
+    private int readProcessor(FileChannel stat) {
+        buf.clear();
+        try {
+            while (buf.hasRemaining()) {
+                if (stat.read(buf, buf.position()) <= 0) break;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return parseProcessor(buf, buf.position());
+    }
+
+    // The comm field (2nd) is in parentheses and may hold spaces and ')', so fields are
+    // counted from the last ')'
+    static int parseProcessor(ByteBuffer line, int length) {
+        int i = length - 1;
+        while (i >= 0 && line.get(i) != ')') i--;
+        if (i < 0) return -1;
+        int field = 2;
+        for (i++; i < length && field < PROCESSOR_FIELD; i++) {
+            if (line.get(i) == ' ') field++;
+        }
+        if (field < PROCESSOR_FIELD) return -1;
+        int cpu = 0, digits = 0;
+        for (; i < length; i++, digits++) {
+            byte b = line.get(i);
+            if (b < '0' || b > '9') break;
+            cpu = cpu * 10 + (b - '0');
+        }
+        return (digits == 0) ? -1 : cpu;
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException e) {
+            // Nothing to release
+        }
+    }
+}
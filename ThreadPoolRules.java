@@ -0,0 +1,97 @@
+package demo;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * ThreadPoolRules - Normalizes thread names to the name of the pool they belong to, so the
+ * workers of a pool ({@code pool-3-thread-17}, {@code ForkJoinPool-1-worker-5}) roll up into
+ * one row.
+ *
+ * A rules file has one rule per line: a regular expression that must match the whole thread
+ * name, {@code =>}, and a replacement that may refer to its groups as {@code $1}. The first
+ * matching rule wins; a name no rule matches is its own pool. Blank lines and lines starting
+ * with '#' are ignored ('#' elsewhere is part of the pattern).
+ * <pre>
+ *   pool-(\d+)-thread-\d+    => pool-$1
+ *   (kafka-producer)-.*      => $1
+ * </pre>
+ */
+final class ThreadPoolRules {
+    // Built-in rules: executor pools by number, then any trailing worker number
+    static final List<String> DEFAULT_RULES = List.of(
+            "pool-(\\d+)-thread-\\d+ => pool-$1",
+            "(.*?\\D)[-_#. ]*\\d+ => $1");
+
+    private static final String ARROW = "=>";
+    private static final Pattern GROUP_REFERENCE = Pattern.compile("(?<!\\\\)\\$(\\d)");
+
+    private final Pattern[] patterns;
+    private final String[] replacements;
+
+    private ThreadPoolRules(List<Pattern> patterns, List<String> replacements) {
+        this.patterns = patterns.toArray(new Pattern[0]);
+        this.replacements = replacements.toArray(new String[0]);
+    }
+
+    static ThreadPoolRules defaults() {
+        try {
+            return parse(DEFAULT_RULES, "built-in thread pool rules");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static ThreadPoolRules load(Path rulesFile) throws IOException {
+        return parse(Files.readAllLines(rulesFile), rulesFile.toString());
+    }
+
+    static ThreadPoolRules parse(List<String> lines, String source) throws IOException {
+        List<Pattern> patterns = new ArrayList<>();
+        List<String> replacements = new ArrayList<>();
+        for (String line : lines) {
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("#")) continue;
+            int arrow = text.lastIndexOf(ARROW);
+            if (arrow < 0) throw new IOException(source + ": expected <regex> => <replacement> in: " + text);
+            String regex = text.substring(0, arrow).trim();
+            String replacement = text.substring(arrow + ARROW.length()).trim();
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw new IOException(source + ": invalid pattern '" + regex + "' in: " + text);
+            }
+            Matcher ref = GROUP_REFERENCE.matcher(replacement);
+            while (ref.find()) {
+                if (Integer.parseInt(ref.group(1)) > pattern.matcher("").groupCount()) {
+                    throw new IOException(source + ": replacement refers to missing group " + ref.group() + " in: " + text);
+                }
+            }
+            patterns.add(pattern);
+            replacements.add(replacement);
+        }
+        return new ThreadPoolRules(patterns, replacements);
+    }
+
+    int size() {
+        return patterns.length;
+    }
+
+    // Pool of a thread: the replacement of the first rule matching its whole name, else the name
+    String poolOf(String threadName) {
+        for (int r = 0; r < patterns.length; r++) {
+            Matcher m = patterns[r].matcher(threadName);
+            if (!m.matches()) continue;
+            // Replace the whole match; replaceFirst would search the name again
+            StringBuilder pool = new StringBuilder();
+            m.appendReplacement(pool, replacements[r]);
+            return pool.toString();
+        }
+        return threadName;
+    }
+}
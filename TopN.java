@@ -0,0 +1,91 @@
+package demo;
+
+/**
+ * TopN - Selects the ids with the n largest scores from a stream of (id, score) pairs with a
+ * bounded min-heap, in O(m log n) time and O(n) memory instead of sorting all m candidates.
+ *
+ * Equal scores rank the lower id first, as a stable sort over ascending ids would.
+ */
+final class TopN {
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    TopN(int n) {
+        ids = new int[Math.max(0, n)];
+        scores = new double[ids.length];
+    }
+
+    // True if a candidate with this score and id would currently be kept
+    boolean accepts(int id, double score) {
+        return size < ids.length || (ids.length > 0 && ranksAbove(id, score, ids[0], scores[0]));
+    }
+
+    void offer(int id, double score) {
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (accepts(id, score)) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    // Selected ids, highest score first; empties the selection
+    int[] drain() {
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = ids[0];
+            size--;
+            ids[0] = ids[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return result;
+    }
+
+    // Ids of the n largest positive counts, largest first
+    static int[] largest(long[] counts, int n) {
+        TopN top = new TopN(n);
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) top.offer(id, counts[id]);
+        }
+        return top.drain();
+    }
+
+    private static boolean ranksAbove(int id, double score, int otherId, double otherScore) {
+        return score > otherScore || (score == otherScore && id < otherId);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!ranksAbove(ids[parent], scores[parent], ids[i], scores[i])) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int lowest = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (ranksAbove(ids[lowest], scores[lowest], ids[child], scores[child])) lowest = child;
+            }
+            if (lowest == i) return;
+            swap(i, lowest);
+            i = lowest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
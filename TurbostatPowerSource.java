@@ -0,0 +1,203 @@
+package demo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * TurbostatPowerSource - Text output of Linux {@code turbostat}, e.g.
+ * <pre>
+ *   turbostat --quiet --enable Time_Of_Day_Seconds --show Time_Of_Day_Seconds,PkgWatt,CorWatt,GFXWatt,RAMWatt \
+ *             --interval 0.1 -o power.turbostat
+ * </pre>
+ *
+ * The whitespace-separated table repeats its header every few rows; only summary rows (a
+ * "-" in the CPU or Core column, or every row of --Summary output) are read. PkgWatt,
+ * CorWatt, GFXWatt and RAMWatt map to the package, ia, uncore and dram domains. turbostat
+ * reports the average over the interval ending at a row, so watts are integrated over the
+ * Time_Of_Day_Seconds gaps into cumulative joules; --Joules output (Pkg_J, ...) is summed.
+ */
+public final class TurbostatPowerSource implements PowerSource {
+    private static final String[] WATT_COLUMNS = { "PkgWatt", "CorWatt", "GFXWatt", "RAMWatt" };
+    private static final String[] JOULE_COLUMNS = { "Pkg_J", "Cor_J", "GFX_J", "RAM_J" };
+    private static final String[] DOMAINS = { PowerTimeline.PACKAGE, PowerTimeline.IA, PowerTimeline.UNCORE, PowerTimeline.DRAM };
+    private static final String TIME_COLUMN = "Time_Of_Day_Seconds";
+
+    @Override
+    public String name() {
+        return "turbostat";
+    }
+
+    @Override
+    public String description() {
+        return "Linux turbostat text output with PkgWatt/CorWatt/GFXWatt/RAMWatt or Pkg_J/... columns";
+    }
+
+    @Override
+    public boolean accepts(String location) {
+        String first = firstLine(location);
+        if (first == null) return false;
+        List<String> tokens = Arrays.asList(first.trim().split("\\s+"));
+        for (int d = 0; d < DOMAINS.length; d++) {
+            if (tokens.contains(WATT_COLUMNS[d]) || tokens.contains(JOULE_COLUMNS[d])) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Readings open(String location) throws IOException {
+        if (location == null) throw new IOException("The turbostat power source needs a turbostat output file");
+        BufferedReader in = Files.newBufferedReader(Paths.get(location), StandardCharsets.UTF_8);
+        try {
+            return new TurbostatReadings(in, location);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // First non-blank line of a regular file, or null
+    static String firstLine(String location) {
+        if (location == null) return null;
+        Path path = Paths.get(location);
+        if (!Files.isRegularFile(path)) return null;
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.trim().isEmpty()) return line;
+            }
+        } catch (IOException e) {
+            // Unreadable: not recognized
+        }
+        return null;
+    }
+
+    private static final class TurbostatReadings implements Readings {
+        private final BufferedReader in;
+        private final String header;
+        private final List<Channel> channels = new ArrayList<>();
+        private final int[] valueCol;      // per channel
+        private final boolean joules;      // Pkg_J style per-interval joules rather than watts
+        private final int timeCol, summaryCol;
+        private final double[] cumulativeJ;
+        private long timeNanos = Long.MIN_VALUE;
+        private long firstNanos = Long.MIN_VALUE;
+        private boolean started;
+
+        TurbostatReadings(BufferedReader in, String location) throws IOException {
+            this.in = in;
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) throw new IOException("Empty turbostat output: " + location);
+            } while (line.trim().isEmpty());
+            header = line.trim();
+            List<String> cols = Arrays.asList(header.split("\\s+"));
+
+            boolean anyJoules = false;
+            for (String c : JOULE_COLUMNS) anyJoules |= cols.contains(c);
+            joules = anyJoules;
+            String[] names = joules ? JOULE_COLUMNS : WATT_COLUMNS;
+            List<Integer> found = new ArrayList<>();
+            for (int d = 0; d < DOMAINS.length; d++) {
+                int col = cols.indexOf(names[d]);
+                if (col < 0) continue;
+                channels.add(new Channel(DOMAINS[d], true, names[d]));
+                found.add(col);
+            }
+            if (channels.isEmpty()) throw new IOException("No turbostat power columns in header:\n" + header);
+            valueCol = found.stream().mapToInt(Integer::intValue).toArray();
+            cumulativeJ = new double[valueCol.length];
+            timeCol = cols.indexOf(TIME_COLUMN);
+            if (timeCol < 0 && !joules) {
+                throw new IOException("turbostat output needs the " + TIME_COLUMN + " column to integrate watts"
+                        + " (run with --enable " + TIME_COLUMN + ")");
+            }
+            int cpu = cols.indexOf("CPU");
+            summaryCol = (cpu >= 0) ? cpu : cols.indexOf("Core");
+        }
+
+        @Override
+        public List<Channel> channels() {
+            return channels;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.equals(header)) continue;
+                String[] f = trimmed.split("\\s+");
+                if (summaryCol >= 0 && (summaryCol >= f.length || !f[summaryCol].equals("-"))) continue;
+                long prevNanos = timeNanos;
+                timeNanos = (timeCol >= 0) ? parseEpochNanos(field(f, timeCol)) : Long.MIN_VALUE;
+                if (firstNanos == Long.MIN_VALUE) firstNanos = timeNanos;
+                // The first row's interval started before the log, so it only sets the origin
+                if (started) {
+                    for (int c = 0; c < valueCol.length; c++) {
+                        double v = number(field(f, valueCol[c]));
+                        if (Double.isNaN(v)) continue;
+                        if (joules) cumulativeJ[c] += v;
+                        else if (prevNanos != Long.MIN_VALUE && timeNanos > prevNanos) cumulativeJ[c] += v * ((timeNanos - prevNanos) / 1e9);
+                    }
+                }
+                started = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long timeNanos() {
+            return timeNanos;
+        }
+
+        @Override
+        public double elapsedSec() {
+            return (timeNanos == Long.MIN_VALUE) ? Double.NaN : (timeNanos - firstNanos) / 1e9;
+        }
+
+        @Override
+        public double value(int channel) {
+            return cumulativeJ[channel];
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private static String field(String[] f, int col) {
+            return (col < f.length) ? f[col] : null;
+        }
+
+        private static double number(String s) {
+            if (s == null) return Double.NaN;
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        // "1700000000.123456" seconds since the epoch
+        private static long parseEpochNanos(String s) {
+            if (s == null) return Long.MIN_VALUE;
+            int dot = s.indexOf('.');
+            try {
+                long seconds = Long.parseLong(dot < 0 ? s : s.substring(0, dot));
+                long nanos = 0;
+                if (dot >= 0) {
+                    String frac = (s.substring(dot + 1) + "000000000").substring(0, 9);
+                    nanos = Long.parseLong(frac);
+                }
+                return seconds * 1_000_000_000L + nanos;
+            } catch (NumberFormatException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+    }
+}